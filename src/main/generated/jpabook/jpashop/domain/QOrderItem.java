@@ -24,6 +24,8 @@ public class QOrderItem extends EntityPathBase<OrderItem> {
 
     public final NumberPath<Integer> count = createNumber("count", Integer.class);
 
+    public final BooleanPath flashSale = createBoolean("flashSale");
+
     public final NumberPath<Long> id = createNumber("id", Long.class);
 
     public final jpabook.jpashop.domain.item.QItem item;
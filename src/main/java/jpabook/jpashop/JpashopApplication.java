@@ -1,11 +1,21 @@
 package jpabook.jpashop;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.hibernate5.Hibernate5Module;
+import com.querydsl.jpa.impl.JPAQueryFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.persistence.EntityManager;
 
 @SpringBootApplication
+@EnableScheduling // flash sale 재고 flush (FlashSaleService)
 public class JpashopApplication {
 
 	public static void main(String[] args) {
@@ -22,4 +32,26 @@ public class JpashopApplication {
 		return hibernate5Module;
 	}
 
+	/*
+	 바이너리 응답 형식 (Accept: application/x-jackson-smile, application/cbor)
+	 필드 이름, 반복되는 문자열을 짧은 참조로 쓰고 숫자를 텍스트로 바꾸지 않아서 json보다 작고 빨리 만든다
+	 json과 같은 spring boot의 ObjectMapper 설정(날짜 형식, 모듈)으로 만들어야 형식만 다르고 내용은 같다
+	 converter 순서상 json이 먼저라 Accept가 없으면 그대로 json
+	*/
+	@Bean
+	MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+	}
+
+	@Bean
+	MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+	}
+
+	// 스레드마다 트랜잭션의 EntityManager로 연결되는 프록시를 쓰므로 하나를 공유해도 된다 (OrderRepository, OrderSearchQueryRepository)
+	@Bean
+	JPAQueryFactory jpaQueryFactory(EntityManager em) {
+		return new JPAQueryFactory(em);
+	}
+
 }
@@ -0,0 +1,62 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.cache.OrderSearchCache;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ 캐시 모니터링용 api
+ hibernate 2차 캐시 region 별 hit/miss/put 수와 현재 메모리에 올라와 있는 엔티티 수
+ (hibernate.generate_statistics가 꺼져 있으면 모두 0, 기본은 꺼져 있고 jpashop.hibernate-statistics=true 로 켠다)
+ 마지막 항목은 주문 검색 결과 캐시 (OrderSearchCache)
+*/
+@RestController
+@RequiredArgsConstructor
+public class CacheStatsApiController {
+
+    private final EntityManagerFactory emf;
+    private final OrderSearchCache orderSearchCache;
+
+    @GetMapping("/api/v1/cache-stats")
+    public List<CacheStatsResponse> cacheStats() {
+        Statistics statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        List<CacheStatsResponse> result = new ArrayList<>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getDomainDataRegionStatistics(regionName);
+            result.add(new CacheStatsResponse(regionName, region.getHitCount(), region.getMissCount(),
+                    region.getPutCount(), hitRatio(region.getHitCount(), region.getMissCount()),
+                    region.getElementCountInMemory(), region.getSizeInMemory()));
+        }
+
+        result.add(new CacheStatsResponse("order-search", orderSearchCache.getHitCount(), orderSearchCache.getMissCount(),
+                -1, orderSearchCache.getHitRatio(), orderSearchCache.size(), orderSearchCache.estimatedBytes()));
+        return result;
+    }
+
+    private static double hitRatio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class CacheStatsResponse {
+        private String region;
+        private long hits;
+        private long misses;
+        private long puts; // 알 수 없으면 음수
+        private double hitRatio;
+        private long size; // 메모리에 있는 엔트리 수, 알 수 없으면 음수
+        private long memoryBytes; // 추정 메모리 사용량, 알 수 없으면 음수
+    }
+}
@@ -0,0 +1,65 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.cache.ChangeVersionTracker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
+import org.springframework.web.accept.ContentNegotiationManager;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/*
+ 목록 api의 조건부 GET (MemberApiController.memberV2, OrderApiController.ordersV4)
+ 같은 목록이 Accept에 따라 json, smile, cbor로 나가므로 ETag에 고른 형식을 넣고 Vary: Accept를 붙인다
+ -> 캐시나 클라이언트가 json으로 받은 ETag로 cbor 응답을 재사용하지 않는다
+ ETag는 약한 ETag(W/"...")로 보낸다
+ -> 강한 ETag가 붙은 응답은 tomcat이 압축하지 않는다(noCompressionStrongETag), 내용이 같으면 압축 여부와 상관없이 같은 ETag여도 된다
+*/
+@Component
+@RequiredArgsConstructor
+public class ConditionalGet {
+
+    private final ContentNegotiationManager contentNegotiationManager;
+    private final HttpMessageConverters httpMessageConverters;
+
+    // 바뀌지 않았으면 true (304, body 없음), 응답 헤더(ETag, Last-Modified, Vary)는 여기서 붙인다
+    public boolean checkNotModified(ServletWebRequest request, ChangeVersionTracker.Version version, Class<?> bodyType) {
+        HttpServletResponse response = request.getResponse();
+        if (response != null) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        }
+        return request.checkNotModified(version.eTag(negotiate(request, bodyType)), version.getLastModified());
+    }
+
+    /*
+     응답을 쓸 때 spring mvc가 고를 형식을 미리 고른다
+     요청한 형식(품질, 구체적인 순) x converter 순서에서 처음 맞는 것, 맞는 것이 없으면 406이 나갈 응답이므로 json으로 둔다
+    */
+    private MediaType negotiate(ServletWebRequest request, Class<?> bodyType) {
+        List<MediaType> requested;
+        try {
+            requested = contentNegotiationManager.resolveMediaTypes(request);
+        } catch (HttpMediaTypeNotAcceptableException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        for (MediaType accept : requested) {
+            for (HttpMessageConverter<?> converter : httpMessageConverters.getConverters()) {
+                if (!converter.canWrite(bodyType, null)) {
+                    continue;
+                }
+                for (MediaType produces : converter.getSupportedMediaTypes()) {
+                    if (produces.isConcrete() && accept.isCompatibleWith(produces)) {
+                        return produces;
+                    }
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+}
@@ -0,0 +1,28 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.monitor.ConnectionUsageTracker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ 커넥션 모니터링용 api (ConnectionUsageTracker)
+ DELETE로 초기화한 다음 부하를 주고 GET으로 보면 그 구간의 커넥션 점유 시간을 알 수 있다
+*/
+@RestController
+@RequiredArgsConstructor
+public class ConnectionStatsApiController {
+
+    private final ConnectionUsageTracker connectionUsageTracker;
+
+    @GetMapping("/api/v1/connection-stats")
+    public ConnectionUsageTracker.Stats connectionStats() {
+        return connectionUsageTracker.stats();
+    }
+
+    @DeleteMapping("/api/v1/connection-stats")
+    public void resetConnectionStats() {
+        connectionUsageTracker.reset();
+    }
+}
@@ -0,0 +1,45 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.service.FlashSaleService;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ 상품별 flash sale 모드를 켜고 끄는 관리용 api
+ 켜져 있는 동안 해당 상품의 주문은 메모리 재고(FlashSaleStockAllocator)에서 처리된다
+*/
+@RestController
+@RequiredArgsConstructor
+public class FlashSaleApiController {
+
+    private final FlashSaleService flashSaleService;
+
+    @PostMapping("/api/v1/flash-sales/{itemId}")
+    public FlashSaleResponse startFlashSale(@PathVariable("itemId") Long itemId) {
+        flashSaleService.start(itemId);
+        return new FlashSaleResponse(itemId, flashSaleService.remaining(itemId));
+    }
+
+    @GetMapping("/api/v1/flash-sales/{itemId}")
+    public FlashSaleResponse flashSale(@PathVariable("itemId") Long itemId) {
+        return new FlashSaleResponse(itemId, flashSaleService.remaining(itemId));
+    }
+
+    @DeleteMapping("/api/v1/flash-sales/{itemId}")
+    public void endFlashSale(@PathVariable("itemId") Long itemId) {
+        flashSaleService.end(itemId);
+    }
+
+    @Data
+    @AllArgsConstructor
+    static class FlashSaleResponse {
+        private Long itemId;
+        private int remaining; // 메모리 상의 남은 재고
+    }
+}
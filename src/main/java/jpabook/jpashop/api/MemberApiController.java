@@ -1,5 +1,6 @@
 package jpabook.jpashop.api;
 
+import jpabook.jpashop.cache.ChangeVersionTracker;
 import jpabook.jpashop.domain.Member;
 import jpabook.jpashop.service.MemberService;
 import lombok.AllArgsConstructor;
@@ -8,6 +9,7 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Required;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
@@ -20,6 +22,8 @@ import java.util.stream.Collectors;
 public class MemberApiController {
 
     private final MemberService memberService;
+    private final ChangeVersionTracker changeVersionTracker;
+    private final ConditionalGet conditionalGet;
 
     /*
      회원을 등록하는 api 이다
@@ -103,8 +107,18 @@ public class MemberApiController {
     public List<Member> membersV1() {
         return memberService.findMembers();
     }
+    /*
+     조건부 GET : 응답에 ETag, Last-Modified를 붙이고
+     클라이언트가 If-None-Match(If-Modified-Since)로 보낸 값이 그대로면 db를 읽지 않고 304를 돌려준다
+     회원 가입, 이름 변경이 커밋되면 버전이 바뀐다 (ChangeVersionTracker), ETag는 응답 형식마다 다르다 (ConditionalGet)
+    */
     @GetMapping("/api/v2/members")
-    public Result memberV2() {
+    public Result memberV2(ServletWebRequest request) {
+        ChangeVersionTracker.Version version = changeVersionTracker.current(ChangeVersionTracker.Resource.MEMBERS);
+        if (conditionalGet.checkNotModified(request, version, Result.class)) {
+            return null; // 304, body 없음
+        }
+
         List<Member> findMembers = memberService.findMembers();
         // 그냥 for 문 돌려서 집어 넣는 거랑 비슷함
         List<MemberDto> collect = findMembers.stream()
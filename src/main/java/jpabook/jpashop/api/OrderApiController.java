@@ -1,23 +1,56 @@
 package jpabook.jpashop.api;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jpabook.jpashop.cache.ChangeVersionTracker;
 import jpabook.jpashop.domain.Address;
 import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderIdempotencyKey;
 import jpabook.jpashop.domain.OrderItem;
 import jpabook.jpashop.domain.OrderStatus;
-import jpabook.jpashop.repository.OrderRepository;
+import jpabook.jpashop.exception.InvalidIdempotencyKeyException;
+import jpabook.jpashop.repository.OrderCursor;
+import jpabook.jpashop.repository.OrderFetchPlan;
 import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.order.query.OrderFlatColumns;
 import jpabook.jpashop.repository.order.query.OrderFlatDto;
 import jpabook.jpashop.repository.order.query.OrderQueryDto;
 import jpabook.jpashop.repository.order.query.OrderQueryRepository;
+import jpabook.jpashop.repository.order.query.OrderSearchDto;
+import jpabook.jpashop.repository.order.query.OrderSearchQueryRepository;
+import jpabook.jpashop.service.IdempotentOrderService;
+import jpabook.jpashop.service.OrderIngestionQueue;
+import jpabook.jpashop.service.OrderService;
 import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /*
@@ -29,8 +62,128 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class OrderApiController {
 
-    private final OrderRepository orderRepository;
+    // Idempotency-Key : 공백 없는 출력 가능한 ascii 문자 1 ~ 100자 (order_idempotency_key 컬럼 길이)
+    private static final Pattern IDEMPOTENCY_KEY = Pattern.compile("[\\x21-\\x7E]{1," + OrderIdempotencyKey.MAX_KEY_LENGTH + "}");
+
     private final OrderQueryRepository orderQueryRepository;
+    private final OrderSearchQueryRepository orderSearchQueryRepository;
+    private final OrderService orderService;
+    private final OrderIngestionQueue orderIngestionQueue;
+    private final IdempotentOrderService idempotentOrderService;
+    private final ObjectMapper objectMapper;
+    private final ChangeVersionTracker changeVersionTracker;
+    private final ConditionalGet conditionalGet;
+
+    /*
+     여러 상품을 한번에 주문하는 api
+     POST /order 를 상품 개수만큼 호출하면 트랜잭션, 시퀀스 조회, flush가 상품마다 한번씩 일어난다
+     여기서는 하나의 트랜잭션에서 Order 1개 + OrderItem N개로 저장한다
+     같은 상품이 여러 줄로 들어오면 수량을 합쳐서 하나의 OrderItem으로 만든다
+    */
+    @PostMapping("/api/v1/orders")
+    public CreateOrderResponse saveOrderV1(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @RequestBody @Valid CreateOrderRequest request) {
+
+        // Idempotency-Key가 있으면 같은 키로 재시도한 요청에 대해 처음 만들어진 주문 id를 그대로 돌려준다
+        checkIdempotencyKey(idempotencyKey);
+        Long id = idempotencyKey != null
+                ? idempotentOrderService.order(idempotencyKey, request.getMemberId(), toItemCounts(request))
+                : orderService.order(request.getMemberId(), toItemCounts(request));
+        return new CreateOrderResponse(id);
+    }
+
+    /*
+     대기열 접수 방식 (OrderIngestionQueue)
+     요청 스레드에서 트랜잭션을 열지 않고 대기열에 넣기만 한다, 응답은 주문이 속한 그룹이 커밋된 다음에 나간다
+     대기열이 가득 차 있으면 503
+     Idempotency-Key는 /api/v1/orders 와 같은 의미 (같은 키로 재시도하면 처음 만들어진 주문 id)
+    */
+    @PostMapping("/api/v1/orders/queued")
+    public CompletableFuture<CreateOrderResponse> saveOrderQueued(
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @RequestBody @Valid CreateOrderRequest request) {
+
+        checkIdempotencyKey(idempotencyKey);
+        CompletableFuture<Long> id = idempotencyKey != null
+                ? idempotentOrderService.submit(idempotencyKey, request.getMemberId(), toItemCounts(request))
+                : orderIngestionQueue.submit(request.getMemberId(), toItemCounts(request));
+        return id.thenApply(CreateOrderResponse::new);
+    }
+
+    // 여러 주문을 한번에 취소한다, 배송완료된 주문이 섞여 있으면 전부 취소되지 않는다
+    @PostMapping("/api/v1/orders/cancel")
+    public CancelOrdersResponse cancelOrdersV1(@RequestBody @Valid CancelOrdersRequest request) {
+        int count = orderService.cancelOrders(request.getOrderIds());
+        return new CancelOrdersResponse(count);
+    }
+    @Data
+    static class CancelOrdersRequest {
+
+        @NotEmpty
+        private List<Long> orderIds;
+    }
+    @Data
+    static class CancelOrdersResponse {
+        private int count; // 실제로 취소된 주문 수 (이미 취소된 주문 제외)
+
+        public CancelOrdersResponse(int count) {
+            this.count = count;
+        }
+    }
+
+    // 컬럼보다 긴 키는 insert에서 실패하고 재시도해도 계속 500이 되므로 저장하기 전에 400으로 거절한다
+    private void checkIdempotencyKey(String idempotencyKey) {
+        if (idempotencyKey != null && !IDEMPOTENCY_KEY.matcher(idempotencyKey).matches()) {
+            throw new InvalidIdempotencyKeyException("Idempotency-Key는 공백 없는 출력 가능한 문자 1 ~ "
+                    + OrderIdempotencyKey.MAX_KEY_LENGTH + "자여야 합니다");
+        }
+    }
+
+    // 같은 상품이 여러 줄로 들어오면 수량을 합친다
+    private Map<Long, Integer> toItemCounts(CreateOrderRequest request) {
+        Map<Long, Integer> itemCounts = new LinkedHashMap<>();
+        for (OrderLineRequest orderLine : request.getOrderLines()) {
+            itemCounts.merge(orderLine.getItemId(), orderLine.getCount(), Integer::sum);
+        }
+        return itemCounts;
+    }
+    @Data
+    static class CreateOrderRequest {
+
+        @NotNull
+        private Long memberId;
+
+        @Valid
+        @NotEmpty
+        private List<OrderLineRequest> orderLines;
+    }
+    @Data
+    static class OrderLineRequest {
+
+        @NotNull
+        private Long itemId;
+
+        @Min(1)
+        private int count;
+    }
+    @Data
+    static class CreateOrderResponse {
+        private Long id;
+
+        public CreateOrderResponse(Long id) {
+            this.id = id;
+        }
+    }
+
+    /*
+     주문 검색 api, /orders 화면과 같은 검색 조건 (memberName, orderStatus, minTotalPrice, maxTotalPrice, sort)
+     엔티티를 거치지 않고 검색 쿼리에서 바로 dto로 받는다
+    */
+    @GetMapping("/api/v1/orders/search")
+    public List<OrderSearchDto> searchOrdersV1(@ModelAttribute OrderSearch orderSearch) {
+        return orderSearchQueryRepository.findAllDto(orderSearch);
+    }
 
     /*
      마찬가지로 엔티티를 직접 노출해버리는 방식이기 때문에
@@ -40,8 +193,8 @@ public class OrderApiController {
     @GetMapping("/api/v1/orders")
     public List<Order> ordersV1() {
 
-        List<Order> all =  orderRepository.findAllByString(new OrderSearch());
-        for (Order order : all) {
+        // open-in-view가 꺼져 있으므로 초기화는 서비스의 트랜잭션 안에서 해야 한다
+        return orderService.readOrders(OrderFetchPlan.ALL, order -> {
             /*
              LAZY타입의 데이터의 프록시들을 실제 값으로 채워주는 과정 프록시 객체에서 get 함수를 호출하면 강제로 값을 초기화 시킬 수 있음
              FETCH로 설정되어있을 경우 n + 1 문제를 발생시킬수가 있음
@@ -51,29 +204,28 @@ public class OrderApiController {
 
             List<OrderItem> orderItems = order.getOrderItems();
             orderItems.stream().forEach(o -> o.getItem().getName());
-        }
-        return all;
+            return order;
+        });
     }
 
     /*
      V1 -> V2
      V1과 쿼리수는 1+N으로 같다
      다만 LAZY방식은 영속성 컨텍스트 내에서 이미 조회된 쿼리라면 생략 가능하기 때문에 최대 1+N번의 쿼리가 이뤄진다
+     -> 지금은 v1, v2 모두 fetch plan(ALL)을 넘겨서 주문 id 조회 + id in 조회 두번으로 읽는다 (OrderRepository.findAllByString)
 
      Dto 설계 목표
      1) 일대다 관계가 추가 될 시에 엔티티 외부 노출을 막기 위해
      2) 컬렉션의 원하는 데이터만 끌고 오기 위해
     */
     @GetMapping("/api/v2/orders")
-    public List<OrderDto> ordersV2() {
+    public MappingJacksonValue ordersV2(@RequestParam(value = "fields", required = false) String fields) {
 
-        List<Order> orders = orderRepository.findAllByString(new OrderSearch());
         // 가져온 order 엔티티들의 리스트를 Dto 형태로 변환 시켜주는 과정
-        List<OrderDto> collect = orders.stream()
-                .map(o -> new OrderDto(o))
-                .collect(Collectors.toList());
-
-        return collect;
+        // 변환까지 서비스의 읽기 전용 트랜잭션 안에서 한다 (OrderService.readOrders)
+        // dto가 쓰는 연관 엔티티는 fetch plan(ALL)으로 조회할 때 같이 읽는다, fields는 json에 쓸 필드만 고른다
+        OrderFields orderFields = OrderFields.parse(fields);
+        return orderFields.filter(orderService.readOrders(OrderFetchPlan.ALL, o -> new OrderDto(o, orderFields)));
     }
 
     /*
@@ -84,21 +236,24 @@ public class OrderApiController {
 
      fetch join의 문제점
      1) 쿼리는 한번에 다 보낼 수 있지만 중복되는 데이터를 디비에서 모두 어플리케이션으로 전달하게 된다
+
+     fields 파라미터로 필요한 필드만 받을 수 있다 (OrderFields)
+     ex) /api/v3/orders?fields=orderId,orderStatus,orderItems.itemName -> member, delivery는 join 하지 않는다
     */
     @GetMapping("/api/v3/orders")
-    public List<OrderDto> ordersV3() {
+    public MappingJacksonValue ordersV3(@RequestParam(value = "fields", required = false) String fields) {
 
-        List<Order> orders = orderRepository.findAllWithItem();
-        List<OrderDto> collect = orders.stream()
-                .map(o -> new OrderDto(o))
-                .collect(Collectors.toList());
-
-        return collect;
+        OrderFields orderFields = OrderFields.parse(fields);
+        if (orderFields == OrderFields.ALL) {
+            return orderFields.filter(orderService.readOrdersWithItem(o -> new OrderDto(o)));
+        }
+        return orderFields.filter(orderService.readOrders(orderFields.fetchPaths(true), o -> new OrderDto(o, orderFields)));
     }
 
     /*
      V3 -> V3-page : 중복되는 데이터 없이 정규화된 상태로 데이터를 발을 수 있다
      (일대다 관계 데이터에서 default_batch_fetch_size 옵션을 추가하여 한번에 size만큼 가져올 수 있도록 설계)
+     -> 필드 전체를 읽을 때는 페이지의 주문 id로 주문 상품을 한번에 읽는다 (OrderService.withItems)
      데이터 베이스를 테이블 a,b,c 가 있다고 하자
      테이블 째로 하나씩 갖고오는것과 테이블 3개를 모두 cross product 시킨 후에 가져오는
      데이터의 중복 여부는 차이가 클 것이다
@@ -107,17 +262,62 @@ public class OrderApiController {
      uri 형태 : /api/v3-page/orders?offset=1&limit=100
     */
     @GetMapping("/api/v3-page/orders")
-    public List<OrderDto> ordersV3_page(
+    public MappingJacksonValue ordersV3_page(
             @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "fields", required = false) String fields) {
+
+        OrderFields orderFields = OrderFields.parse(fields);
+        if (orderFields == OrderFields.ALL) {
+            // 먼저 order에서 to one 관계에 있는 member와 delivery는 fetch join으로 가져온다
+            return orderFields.filter(orderService.readOrdersWithMemberDelivery(offset, limit, o -> new OrderDto(o)));
+        }
+        // 요청한 필드에 필요한 to one 관계만 fetch join 한다
+        return orderFields.filter(orderService.readOrders(orderFields.fetchPaths(false), offset, limit,
+                o -> new OrderDto(o, orderFields)));
+    }
+
+    /*
+     V3-page -> V3-cursor
+     offset 페이징은 뒤쪽 페이지일수록 db가 건너뛸 row를 모두 읽어야 해서 점점 느려진다
+     응답에 담긴 nextCursor를 다음 요청의 cursor로 넘기면 마지막으로 본 주문 다음부터 가져온다
+     nextCursor가 null이면 마지막 페이지
+
+     uri 형태 : /api/v3-cursor/orders?sort=ORDER_DATE&limit=100&cursor=...
+    */
+    @GetMapping("/api/v3-cursor/orders")
+    public MappingJacksonValue ordersV3_cursor(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "sort", defaultValue = "ID") OrderCursor.Key sort,
             @RequestParam(value = "limit", defaultValue = "100") int limit) {
 
-        // 먼저 order에서 to one 관계에 있는 member와 delivery는 fetch join으로 가져온다
-        List<Order> orders = orderRepository.findAllWithMemberDelivery(offset, limit);
-        List<OrderDto> collect = orders.stream()
-                .map(o -> new OrderDto(o))
-                .collect(Collectors.toList());
+        limit = Math.max(1, Math.min(limit, 1000));
+        OrderCursor orderCursor = cursor == null ? OrderCursor.first(sort) : OrderCursor.decode(cursor);
+
+        // 다음 페이지가 있는지 알기 위해 한 건 더 읽어본다 (count 쿼리 없이)
+        List<OrderDto> collect = orderService.readOrdersWithMemberDelivery(orderCursor, limit + 1, o -> new OrderDto(o));
+        boolean hasNext = collect.size() > limit;
+        if (hasNext) {
+            collect = collect.subList(0, limit);
+        }
 
-        return collect;
+        String nextCursor = null;
+        if (hasNext) {
+            OrderDto last = collect.get(collect.size() - 1);
+            nextCursor = OrderCursor.after(orderCursor.getKey(), last.getOrderId(), last.getOrderDate()).encode();
+        }
+        // OrderDto의 json 필터 (필드 전체)
+        return OrderFields.ALL.filter(new OrderPageResponse(collect, nextCursor));
+    }
+    @Data
+    static class OrderPageResponse {
+        private List<OrderDto> data;
+        private String nextCursor;
+
+        public OrderPageResponse(List<OrderDto> data, String nextCursor) {
+            this.data = data;
+            this.nextCursor = nextCursor;
+        }
     }
 
     /*
@@ -125,7 +325,12 @@ public class OrderApiController {
      OrderQueryRepository, OrderQueryDto, OrderItemQueryDto 확인
     */
     @GetMapping("/api/v4/orders")
-    public List<OrderQueryDto> ordersV4() {
+    public List<OrderQueryDto> ordersV4(ServletWebRequest request) {
+        // 주문, 취소, 회원 이름, 상품 정보가 바뀌지 않았으면 304 (MemberApiController.memberV2 참고)
+        ChangeVersionTracker.Version version = changeVersionTracker.current(ChangeVersionTracker.Resource.ORDERS);
+        if (conditionalGet.checkNotModified(request, version, List.class)) {
+            return null;
+        }
         return orderQueryRepository.findOrderQueryDtos();
     }
 
@@ -139,14 +344,87 @@ public class OrderApiController {
         return orderQueryRepository.findAllByDto_flat();
     }
 
+    /*
+     v6 -> v6-columnar : 같은 데이터를 컬럼 + 사전 모양으로 내려준다 (OrderFlatColumns)
+     회원명, 주소, 상품명, 주문 정보가 주문 상품마다 반복되지 않는다
 
+     v4 ~ v6는 Accept 헤더로 바이너리 형식을 고를 수 있다 (JpashopApplication의 smile, cbor converter)
+     ex) Accept: application/x-jackson-smile, Accept: application/cbor, 그 외에는 json
+    */
+    @GetMapping("/api/v6-columnar/orders")
+    public OrderFlatColumns orderV6_columnar() {
+        return orderQueryRepository.findAllByDto_columnar();
+    }
 
+    /*
+     v6 streaming
+     v6는 전체 결과를 List로 만든 다음 응답을 쓰기 때문에 데이터가 많으면 힙이 row 수만큼 커진다
+     db 커서에서 한 줄 읽을 때마다 바로 응답에 써서 메모리 사용량이 결과 크기와 상관없이 일정하다
+     format=json(기본) : v6와 같은 json 배열, format=ndjson : 한 줄에 주문 상품 하나씩 (application/x-ndjson)
+    */
+    @GetMapping("/api/v6-stream/orders")
+    public void orderV6_stream(
+            @RequestParam(value = "format", defaultValue = "json") String format,
+            HttpServletResponse response) throws IOException {
+
+        boolean ndjson = "ndjson".equalsIgnoreCase(format);
+        response.setContentType(ndjson ? "application/x-ndjson" : MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            if (ndjson) {
+                generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+            } else {
+                generator.writeStartArray();
+            }
+
+            orderQueryRepository.streamAllByDto_flat(row -> {
+                try {
+                    generator.writeObject(row);
+                } catch (IOException e) {
+                    // 클라이언트가 연결을 끊은 경우 등, 커서를 닫고 트랜잭션을 끝내기 위해 그대로 던진다
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            if (ndjson) {
+                generator.writeRaw('\n');
+            } else {
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    /*
+     v7 : v6 쿼리 한번으로 v5와 같은 중첩된 모양(주문 + 주문상품 목록)을 만든다
+     order_id 순으로 읽으면서 주문이 바뀔 때마다 완성된 주문을 바로 응답에 쓰므로 주문 하나 분량의 메모리만 쓴다
+    */
+    @GetMapping("/api/v7/orders")
+    public void ordersV7(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            orderQueryRepository.streamAllByDto_grouped(order -> {
+                try {
+                    generator.writeObject(order);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
 
 
     /* Dto 클래스 */
     @Data
+    @JsonFilter(OrderDto.FILTER)
     static class OrderDto {
 
+        static final String FILTER = "orderDto"; // fields 파라미터로 고른 필드만 쓴다 (OrderFields)
+
         private Long orderId;
         private String name;
         private LocalDateTime orderDate;
@@ -160,31 +438,48 @@ public class OrderApiController {
         private List<OrderItemDto> orderItems;
 
         public OrderDto(Order order) {
+            this(order, OrderFields.ALL);
+        }
+
+        // 요청하지 않은 필드의 연관 엔티티(회원, 배송, 주문 상품, 상품)는 건드리지 않는다 -> 지연 로딩이 일어나지 않는다
+        public OrderDto(Order order, OrderFields fields) {
 
             orderId = order.getId();
-            name = order.getMember().getName();
+            if (fields.includes("name")) {
+                name = order.getMember().getName();
+            }
             orderDate = order.getOrderDate();
             orderStatus = order.getStatus();
-            address = order.getDelivery().getAddress();
+            if (fields.includes("address")) {
+                address = order.getDelivery().getAddress();
+            }
             /*
              order.getOrderItems().stream().forEach(o -> o.getItem().getName());
              orderItems = order.getOrderItems();
             */
-            orderItems = order.getOrderItems().stream()
-                    .map(orderItem -> new OrderItemDto(orderItem))
-                    .collect(Collectors.toList());
+            if (fields.includes("orderItems")) {
+                orderItems = order.getOrderItems().stream()
+                        .map(orderItem -> new OrderItemDto(orderItem, fields))
+                        .collect(Collectors.toList());
+            }
         }
     }
 
     @Data
+    @JsonFilter(OrderItemDto.FILTER)
     static class OrderItemDto {
+
+        static final String FILTER = "orderItemDto";
+
         // 원하는 정보들만 담는다
         private String itemName;
         private int orderPrice;
         private int count;
 
-        public OrderItemDto(OrderItem orderItem) {
-            itemName = orderItem.getItem().getName();
+        public OrderItemDto(OrderItem orderItem, OrderFields fields) {
+            if (fields.includes("orderItems.itemName")) {
+                itemName = orderItem.getItem().getName();
+            }
             orderPrice = orderItem.getOrderPrice();
             count = orderItem.getCount();
         }
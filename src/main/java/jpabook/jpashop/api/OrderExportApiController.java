@@ -0,0 +1,38 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.service.OrderExportService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ 주문 전체 csv 내보내기 (OrderExportService)
+ 응답 output stream에 바로 쓰므로 응답 크기만큼 메모리에 모으지 않는다
+*/
+@RestController
+@RequiredArgsConstructor
+public class OrderExportApiController {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OrderExportService orderExportService;
+
+    @GetMapping("/api/v1/orders/export")
+    public void exportOrders(HttpServletResponse response) throws IOException {
+        response.setContentType("text/csv");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"orders.csv\"");
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+        orderExportService.exportCsv(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,117 @@
+package jpabook.jpashop.api;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import jpabook.jpashop.exception.InvalidFieldsException;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+ 주문 api의 fields 파라미터 (sparse fieldset)
+ ex) /api/v3/orders?fields=orderId,orderStatus,orderItems.itemName
+ orderItems 처럼 쓰면 주문 상품의 모든 필드, orderItems.itemName 처럼 쓰면 그 필드만 내려간다
+ 파라미터가 없으면 모든 필드
+
+ json에서 필드를 빼는 것(OrderDto의 @JsonFilter)뿐 아니라
+ 요청하지 않은 필드의 연관 엔티티는 join 하지도, dto 변환 중에 지연 로딩하지도 않는다 -> 응답이 작으면 쿼리도 가볍다
+*/
+final class OrderFields {
+
+    static final OrderFields ALL = new OrderFields(null);
+
+    private static final Set<String> ORDER_FIELDS = new LinkedHashSet<>(Arrays.asList(
+            "orderId", "name", "orderDate", "orderStatus", "address", "orderItems"));
+    private static final Set<String> ORDER_ITEM_FIELDS = new LinkedHashSet<>(Arrays.asList(
+            "itemName", "orderPrice", "count"));
+    private static final String ORDER_ITEMS_PREFIX = "orderItems.";
+
+    private final Set<String> fields; // null이면 전체
+
+    private OrderFields(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    static OrderFields parse(String fields) {
+        if (!StringUtils.hasText(fields)) {
+            return ALL;
+        }
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String field : StringUtils.commaDelimitedListToStringArray(fields)) {
+            field = field.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            boolean known = field.startsWith(ORDER_ITEMS_PREFIX)
+                    ? ORDER_ITEM_FIELDS.contains(field.substring(ORDER_ITEMS_PREFIX.length()))
+                    : ORDER_FIELDS.contains(field);
+            if (!known) {
+                throw new InvalidFieldsException("알 수 없는 필드입니다: " + field);
+            }
+            parsed.add(field);
+        }
+        return parsed.isEmpty() ? ALL : new OrderFields(Collections.unmodifiableSet(parsed));
+    }
+
+    /*
+     orderItems.itemName은 orderItems를 통째로 요청했을 때도 포함되고,
+     orderItems는 그 안의 필드 하나만 요청했을 때도 포함된다 (주문 상품 목록은 있어야 하므로)
+    */
+    boolean includes(String field) {
+        if (fields == null || fields.contains(field)) {
+            return true;
+        }
+        if (field.startsWith(ORDER_ITEMS_PREFIX)) {
+            return fields.contains("orderItems");
+        }
+        return "orderItems".equals(field) && fields.stream().anyMatch(f -> f.startsWith(ORDER_ITEMS_PREFIX));
+    }
+
+    /*
+     조회 쿼리에서 같이 읽을 연관 엔티티 (OrderRepository.findAll의 entity graph 경로)
+     회원은 name, 배송은 address, 상품은 orderItems.itemName 을 요청했을 때만 읽는다
+     페이징 쿼리에는 컬렉션을 fetch join 할 수 없으므로 collections가 false면 주문 상품은 빼고
+     트랜잭션 안에서 dto로 바꿀 때 default_batch_fetch_size로 페이지 단위 in 쿼리로 읽는다
+    */
+    List<String> fetchPaths(boolean collections) {
+        List<String> paths = new ArrayList<>();
+        if (includes("name")) {
+            paths.add("member");
+        }
+        if (includes("address")) {
+            paths.add("delivery");
+        }
+        if (collections && includes("orderItems")) {
+            paths.add(includes(ORDER_ITEMS_PREFIX + "itemName") ? "orderItems.item" : "orderItems");
+        }
+        return paths;
+    }
+
+    // 응답 body에 OrderDto, OrderItemDto 별 json 필터를 붙인다
+    MappingJacksonValue filter(Object body) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        FilterProvider filters = new SimpleFilterProvider()
+                .addFilter(OrderApiController.OrderDto.FILTER, propertyFilter(ORDER_FIELDS, ""))
+                .addFilter(OrderApiController.OrderItemDto.FILTER, propertyFilter(ORDER_ITEM_FIELDS, ORDER_ITEMS_PREFIX));
+        value.setFilters(filters);
+        return value;
+    }
+
+    private PropertyFilter propertyFilter(Set<String> names, String prefix) {
+        if (fields == null) {
+            return SimpleBeanPropertyFilter.serializeAll();
+        }
+        return SimpleBeanPropertyFilter.filterOutAllExcept(names.stream()
+                .filter(name -> includes(prefix + name))
+                .collect(Collectors.toSet()));
+    }
+}
@@ -3,9 +3,9 @@ package jpabook.jpashop.api;
 import jpabook.jpashop.domain.Address;
 import jpabook.jpashop.domain.Order;
 import jpabook.jpashop.domain.OrderStatus;
-import jpabook.jpashop.repository.OrderRepository;
-import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderFetchPlan;
 import jpabook.jpashop.repository.OrderSimpleQueryDto;
+import jpabook.jpashop.service.OrderService;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -13,7 +13,6 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /*
  x to one (OneToOne 과 ManyToOne에서 성능 최적화를 어떻게 할 것이냐)
@@ -25,7 +24,7 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class OrderSimpleApiController {
 
-    private final OrderRepository orderRepository;
+    private final OrderService orderService;
 
     @GetMapping("/api/v1/simple-orders")
     public List<Order> ordersV1() {
@@ -52,10 +51,9 @@ public class OrderSimpleApiController {
             --> 이 과정을 거치지 않도록 build.gradle 에다가 추가한 후 main 함수에다 등록하면 된다
             --> 그렇게 되면 기본 설정을 프록시가 아닌 사용자 설정에 의한 값으로 세팅을 할 수 있다
         */
-        List<Order> all = orderRepository.findAllByString(new OrderSearch());
-
         // 원하는 정보만 끌어다가 리턴하고 싶은 경우
-        for (Order order : all) {
+        // open-in-view가 꺼져 있으므로 초기화는 서비스의 트랜잭션 안에서 해야 한다
+        return orderService.readOrders(OrderFetchPlan.MEMBER_DELIVERY, order -> {
             /*
              LAZY loading
              매핑정보를 사용하지 않을 경우는 프록시 객체로 초기화가 되지만 해당 프록시 객체에서 get 함수를 호출하면
@@ -63,38 +61,31 @@ public class OrderSimpleApiController {
             */
             order.getMember().getName();
             order.getDelivery().getAddress();
-        }
-        return all;
+            return order;
+        });
     }
 
     /*
      V1과 쿼리수는 1+N으로 같다
      다만 LAZY방식은 영속성 컨텍스트 내에서 이미 조회된 쿼리라면 생략 가능하기 때문에 최대 1+N번의 쿼리가 이뤄진다
+     -> 지금은 v1, v2 모두 fetch plan(MEMBER_DELIVERY)을 넘겨서 조회 쿼리 한번으로 읽는다
     */
     @GetMapping("/api/v2/simple-orders")
     public List<SimpleOrderDto> ordersV2() {
-        List<Order> orders = orderRepository.findAllByString(new OrderSearch());
-        List<SimpleOrderDto> result = orders.stream()
-                .map(o -> new SimpleOrderDto(o))
-                .collect(Collectors.toList());
-
-        return result;
+        // dto 변환은 서비스의 트랜잭션 안에서 한다, 회원과 배송은 fetch plan으로 조회할 때 같이 읽는다
+        return orderService.readOrders(OrderFetchPlan.MEMBER_DELIVERY, o -> new SimpleOrderDto(o));
     }
 
     // jpa의 fetch 명령어를 사용하여 sql쿼리 수를 줄이는 방법
     @GetMapping("/api/v3/simple-orders")
     public List<SimpleOrderDto> orderV3() {
-        List<Order> orders = orderRepository.findAllWithMemberDelivery(); // OrderRepository 에 있음
-        List<SimpleOrderDto> result = orders.stream()
-                .map(o -> new SimpleOrderDto(o))
-                .collect(Collectors.toList());
-
-        return result;
+        // OrderRepository.findAllWithMemberDelivery, 조회와 dto 변환을 서비스의 읽기 전용 트랜잭션 안에서 한다
+        return orderService.readOrdersWithMemberDelivery(o -> new SimpleOrderDto(o));
     }
 
     @GetMapping("/api/v4/simple-orders")
     public List<OrderSimpleQueryDto> orderV4() {
-        return orderRepository.findOrderDtos(); // OrderRepository 에 있음
+        return orderService.findOrderDtos(); // OrderRepository 에 있음
 
     }
 
@@ -0,0 +1,83 @@
+package jpabook.jpashop.cache;
+
+import lombok.Getter;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ 목록 api의 조건부 GET(ETag, Last-Modified)용 변경 버전
+ 대시보드가 몇 초마다 회원, 주문 목록을 다시 받아가는데 목록은 그보다 훨씬 드물게 바뀐다
+ -> 데이터를 바꾸는 서비스가 커밋 후에 버전을 올리고, 목록 api는 버전이 같으면 db를 읽지 않고 304를 돌려준다
+
+ 버전은 이 서버의 메모리에만 있다, ETag에 서버 시작 시각을 넣어서 재시작하면 이전 ETag는 맞지 않게 한다
+ ETag는 응답 형식(json, smile, cbor)마다 다르다, 약한 ETag로 만든다 (api.ConditionalGet)
+ Last-Modified는 초 단위라 같은 초 안의 두 변경을 구분하지 못한다 -> If-None-Match가 같이 오면 ETag로만 판단한다 (WebRequest.checkNotModified)
+ 서비스를 거치지 않고 db를 바꾸면(직접 sql 등) 알 수 없으므로 목록이 바뀌는 변경은 모두 서비스에서 올려야 한다
+*/
+@Component
+public class ChangeVersionTracker {
+
+    public enum Resource {
+        MEMBERS, // /api/v2/members
+        ORDERS   // /api/v4/orders (회원 이름, 상품 이름도 들어간다)
+    }
+
+    private final long epoch = System.currentTimeMillis();
+    private final Map<Resource, Version> versions = new ConcurrentHashMap<>();
+
+    public ChangeVersionTracker() {
+        for (Resource resource : Resource.values()) {
+            versions.put(resource, new Version(resource, epoch, 0, epoch));
+        }
+    }
+
+    // 목록을 읽기 전에 받아둔다 -> 읽는 도중에 커밋된 변경은 다음 요청에서 새 ETag로 받아간다
+    public Version current(Resource resource) {
+        return versions.get(resource);
+    }
+
+    // 트랜잭션이 커밋된 다음에 올린다, 트랜잭션 밖이면 바로 올린다 (OrderSearchCache.invalidateAfterCommit과 같은 방식)
+    public void bumpAfterCommit(Resource... resources) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bump(resources);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                bump(resources);
+            }
+        });
+    }
+
+    private void bump(Resource... resources) {
+        long now = System.currentTimeMillis();
+        for (Resource resource : resources) {
+            versions.computeIfPresent(resource, (r, version) -> new Version(r, epoch, version.getNumber() + 1, now));
+        }
+    }
+
+    @Getter
+    public static class Version {
+
+        private final long number;
+        private final String tag;
+        private final long lastModified; // epoch millis, Last-Modified 헤더는 초 단위로 잘린다
+
+        Version(Resource resource, long epoch, long number, long lastModified) {
+            this.number = number;
+            this.tag = resource.name().toLowerCase() + "-" + Long.toString(epoch, 36) + "-" + number;
+            this.lastModified = lastModified;
+        }
+
+        // ex) W/"orders-k1x2y3z-5-cbor"
+        public String eTag(MediaType mediaType) {
+            return "W/\"" + tag + "-" + mediaType.getSubtype() + "\"";
+        }
+    }
+}
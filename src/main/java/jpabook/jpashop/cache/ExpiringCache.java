@@ -0,0 +1,123 @@
+package jpabook.jpashop.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ 크기 제한 + 만료 시간이 있는 메모리 캐시
+ 조회는 ConcurrentHashMap get 한번 + 시간 비교뿐이라 요청 처리 경로에 둬도 부담이 없다
+ maxSize를 넘으면 만료된 항목부터 지우고, 그래도 넘으면 만료가 가장 임박한 항목부터 지운다
+*/
+public class ExpiringCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpiringCache(int maxSize, long ttl, TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if(entry == null) {
+            misses.increment();
+            return null;
+        }
+        if(entry.isExpired(System.nanoTime())) {
+            entries.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+        if(entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    // 값들을 돌면서 추가 통계(메모리 추정 등)를 낼 때 사용
+    public Iterable<V> values() {
+        List<V> values = new ArrayList<>(entries.size());
+        entries.values().forEach(entry -> values.add(entry.value));
+        return values;
+    }
+
+    private synchronized void evict() {
+        if(entries.size() <= maxSize) {
+            return;
+        }
+        long now = System.nanoTime();
+        int before = entries.size();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+
+        // 만료된게 부족하면 만료가 임박한 순서대로 maxSize의 90%까지 비운다 (put 할때마다 정리하지 않도록 여유를 둔다)
+        int overflow = entries.size() - maxSize * 9 / 10;
+        if(overflow > 0) {
+            List<Map.Entry<K, Entry<V>>> oldest = new ArrayList<>(entries.entrySet());
+            oldest.sort((a, b) -> Long.compare(a.getValue().expiresAt, b.getValue().expiresAt));
+            for (int i = 0; i < overflow && i < oldest.size(); i++) {
+                entries.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+            }
+        }
+        evictions.add(Math.max(0, before - entries.size()));
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt > 0;
+        }
+    }
+}
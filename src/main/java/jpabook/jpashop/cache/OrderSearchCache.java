@@ -0,0 +1,172 @@
+package jpabook.jpashop.cache;
+
+import jpabook.jpashop.domain.DeliveryStatus;
+import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderSort;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ 주문 검색(OrderService.findOrders) 결과 캐시
+ 같은 검색 조건이 계속 들어오는데 주문은 조회보다 훨씬 드물게 바뀌므로 검색 결과의 주문 id 목록을 캐시한다
+ 엔티티는 영속성 컨텍스트(요청)마다 따로여야 하므로 캐시하지 않고, 캐시가 맞으면 id로 한번에 다시 읽는다 (pk in 쿼리)
+
+ 페이지 검색이면 페이지별 id 목록을, 검색 결과 건수(OrderService.COUNT_LIMIT까지 센 값)는 검색 조건별로 따로 캐시한다
+
+ 주문, 취소, 회원 이름 변경, 상품 정보 변경이 커밋되면 전부 비운다 (invalidateAfterCommit)
+ 검색 도중에 커밋된 변경 때문에 오래된 결과가 다시 들어가지 않도록 세대(generation) 번호로 확인한다
+*/
+@Component
+public class OrderSearchCache {
+
+    private static final int ESTIMATED_BYTES_PER_ID = 24; // Long 객체 16 + 참조 8
+    private static final int ESTIMATED_BYTES_PER_ENTRY = 200; // 키, 리스트, map 엔트리
+
+    private final ExpiringCache<Key, List<Long>> cache;
+    private final ExpiringCache<Key, Long> counts;
+    private final AtomicLong generation = new AtomicLong();
+
+    public OrderSearchCache(@Value("${jpashop.order-search-cache.size:1000}") int size,
+                            @Value("${jpashop.order-search-cache.ttl-seconds:60}") long ttlSeconds) {
+        this.cache = new ExpiringCache<>(size, ttlSeconds, TimeUnit.SECONDS);
+        this.counts = new ExpiringCache<>(size, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    public List<Long> get(Key key) {
+        return cache.get(key);
+    }
+
+    // 검색을 시작하기 전에 받아둔다
+    public long generation() {
+        return generation.get();
+    }
+
+    // 검색하는 동안 무효화가 없었을 때만 저장한다
+    public void put(Key key, List<Long> orderIds, long generationAtSearch) {
+        if(generation.get() != generationAtSearch) {
+            return;
+        }
+        cache.put(key, Collections.unmodifiableList(orderIds));
+        // put 하는 사이에 무효화됐으면 방금 넣은 것도 지운다
+        if(generation.get() != generationAtSearch) {
+            cache.invalidate(key);
+        }
+    }
+
+    public Long getCount(Key key) {
+        return counts.get(key);
+    }
+
+    // put과 같은 방식으로 검색하는 동안 무효화가 없었을 때만 저장한다
+    public void putCount(Key key, long count, long generationAtSearch) {
+        if(generation.get() != generationAtSearch) {
+            return;
+        }
+        counts.put(key, count);
+        if(generation.get() != generationAtSearch) {
+            counts.invalidate(key);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        counts.invalidateAll();
+    }
+
+    // 트랜잭션이 커밋된 다음에 비운다, 트랜잭션 밖이면 바로 비운다
+    public void invalidateAfterCommit() {
+        if(!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateAll();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidateAll();
+            }
+        });
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public double getHitRatio() {
+        return cache.getHitRatio();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    // 대략적인 메모리 사용량 (캐시된 id 수 기준)
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (List<Long> orderIds : cache.values()) {
+            bytes += ESTIMATED_BYTES_PER_ENTRY + (long) orderIds.size() * ESTIMATED_BYTES_PER_ID;
+        }
+        return bytes;
+    }
+
+    /*
+     검색 조건을 정규화한 캐시 키
+     공백뿐인 회원명, 상품명은 조건 없음으로 맞춘다 (OrderRepository의 nameContains와 같은 기준)
+    */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static class Key {
+
+        private final String memberName;
+        private final OrderStatus orderStatus;
+        private final Integer minTotalPrice;
+        private final Integer maxTotalPrice;
+        private final OrderSort sort;
+        private final LocalDate orderDateFrom;
+        private final LocalDate orderDateTo;
+        private final DeliveryStatus deliveryStatus;
+        private final String itemName;
+        private final Integer page; // 페이지 검색이 아니면 null
+        private final Integer size;
+
+        private Key(OrderSearch orderSearch, Integer page, Integer size) {
+            this.memberName = StringUtils.hasText(orderSearch.getMemberName()) ? orderSearch.getMemberName() : null;
+            this.orderStatus = orderSearch.getOrderStatus();
+            this.minTotalPrice = orderSearch.getMinTotalPrice();
+            this.maxTotalPrice = orderSearch.getMaxTotalPrice();
+            this.sort = orderSearch.getSort();
+            this.orderDateFrom = orderSearch.getOrderDateFrom();
+            this.orderDateTo = orderSearch.getOrderDateTo();
+            this.deliveryStatus = orderSearch.getDeliveryStatus();
+            this.itemName = StringUtils.hasText(orderSearch.getItemName()) ? orderSearch.getItemName() : null;
+            this.page = page;
+            this.size = size;
+        }
+
+        public static Key of(OrderSearch orderSearch) {
+            return new Key(orderSearch, null, null);
+        }
+
+        public static Key of(OrderSearch orderSearch, int page, int size) {
+            return new Key(orderSearch, page, size);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package jpabook.jpashop.controller;
 
 import jpabook.jpashop.domain.Member;
-import jpabook.jpashop.domain.Order;
 import jpabook.jpashop.domain.item.Item;
+import jpabook.jpashop.repository.OrderFetchPlan;
+import jpabook.jpashop.repository.OrderPage;
 import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.service.IdempotentOrderService;
 import jpabook.jpashop.service.ItemService;
 import jpabook.jpashop.service.MemberService;
 import jpabook.jpashop.service.OrderService;
@@ -12,6 +14,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Collections;
 import java.util.List;
 
 @Controller
@@ -21,6 +24,7 @@ public class OrderController {
     private final OrderService orderService;
     private final MemberService memberService;
     private final ItemService itemService;
+    private final IdempotentOrderService idempotentOrderService;
 
     @GetMapping("/order")
     public String createForm(Model model) {
@@ -35,21 +39,33 @@ public class OrderController {
     }
 
     @PostMapping("/order")
-    public String order(@RequestParam("memberId") Long memberId,
+    public String order(@RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                        @RequestParam("memberId") Long memberId,
                         @RequestParam("itemId") Long itemId,
                         @RequestParam("count") int count) {
 
-        orderService.order(memberId, itemId, count);
+        // 타임아웃 후 재시도하는 클라이언트는 같은 Idempotency-Key를 보내서 주문이 두번 생기지 않게 한다
+        if(idempotencyKey != null) {
+            idempotentOrderService.order(idempotencyKey, memberId, Collections.singletonMap(itemId, count));
+        } else {
+            orderService.order(memberId, itemId, count);
+        }
         return "redirect:/orders";
     }
 
     @GetMapping("/orders")
-    public String orderList(@ModelAttribute("orderSearch") OrderSearch orderSearch, Model model) {
+    public String orderList(@ModelAttribute("orderSearch") OrderSearch orderSearch,
+                            @RequestParam(value = "page", defaultValue = "0") int page,
+                            @RequestParam(value = "size", defaultValue = "20") int size,
+                            Model model) {
         // ModelAttribute
         // model.addAttribute("orderSearch", orderSearch); 이 라인이 생략된 것이나 마찬가지임
 
-        List<Order> orders = orderService.findOrders(orderSearch);
-        model.addAttribute("orders", orders);
+        // 화면에서 회원명, 대표상품(주문 상품 -> 상품)을 그린다 -> 트랜잭션 안에서 같이 읽어둬야 한다 (open-in-view 꺼짐)
+        OrderPage orderPage = orderService.findOrders(orderSearch, Math.max(page, 0), Math.min(Math.max(size, 1), 100),
+                OrderFetchPlan.ALL);
+        model.addAttribute("orders", orderPage.getOrders());
+        model.addAttribute("orderPage", orderPage);
 
         return "order/orderList";
     }
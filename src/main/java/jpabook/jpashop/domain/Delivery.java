@@ -3,16 +3,24 @@ package jpabook.jpashop.domain;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 
 // 9 번째 생성
+// 2차 캐시
 @Entity
+@Table(indexes = @Index(name = "idx_delivery_status", columnList = "status")) // 배송상태 검색
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "delivery")
 @Getter
 @Setter
 public class Delivery {
 
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "delivery_seq_generator")
+    @SequenceGenerator(name = "delivery_seq_generator", sequenceName = "delivery_seq", allocationSize = 50)
     @Column(name = "delivery_id")
     private Long id;
 
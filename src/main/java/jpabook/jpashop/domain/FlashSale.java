@@ -0,0 +1,59 @@
+package jpabook.jpashop.domain;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.LocalDateTime;
+
+/*
+ 상품 하나에 대한 flash sale 진행 정보
+ 재고 자체는 메모리(FlashSaleStockAllocator)에서 관리하지만 서버가 재시작되면 메모리 값이 날아가므로
+ 시작 시간과 db 재고에 반영한 판매 수량(flushedSold)을 db에 남겨둔다
+ flushedSold는 재고 반영(item update)과 같은 트랜잭션에서 바뀐다
+ -> 재시작 시 실제 flash sale 주문 수량 - flushedSold = 메모리에만 있다가 사라진 판매 수량
+*/
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class FlashSale {
+
+    @Id
+    @Column(name = "item_id")
+    private Long itemId;
+
+    private int initialStock; // 시작 시점의 재고
+    private LocalDateTime startedAt;
+    private boolean active;
+    private int flushedSold; // db 재고에 반영한 판매 수량 (flash sale로 판 주문 상품 수량의 합, 취소 여부와 상관없이)
+
+    // 생성 메서드
+    public static FlashSale createFlashSale(Long itemId, int initialStock, LocalDateTime startedAt) {
+        FlashSale flashSale = new FlashSale();
+        flashSale.setItemId(itemId);
+        flashSale.restart(initialStock, startedAt);
+        return flashSale;
+    }
+
+    // 같은 상품으로 다시 flash sale을 여는 경우
+    public void restart(int initialStock, LocalDateTime startedAt) {
+        this.initialStock = initialStock;
+        this.startedAt = startedAt;
+        this.active = true;
+        this.flushedSold = 0;
+    }
+
+    // 메모리에서 팔린 수량을 db 재고에 반영했을 때
+    public void flushed(int count) {
+        this.flushedSold += count;
+    }
+
+    public void end() {
+        this.active = false;
+    }
+}
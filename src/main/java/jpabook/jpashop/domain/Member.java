@@ -1,8 +1,11 @@
 package jpabook.jpashop.domain;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import jpabook.jpashop.repository.MemberNameIndexListener;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotEmpty;
@@ -10,13 +13,21 @@ import java.util.ArrayList;
 import java.util.List;
 
 // 1 번째 생성
+// 2차 캐시, 주문할 때마다 같은 회원을 db에서 다시 읽지 않는다
+// orders 컬렉션은 캐시하지 않는다 (Order 쪽에서만 바뀌는 mappedBy 컬렉션이라 캐시가 자동으로 무효화되지 않음)
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "member")
+@Table(indexes = @Index(name = "idx_member_name", columnList = "name")) // 중복 회원 검사(findByName), 이름 검색
+@EntityListeners(MemberNameIndexListener.class) // 회원 이름 검색 색인 갱신
 @Getter
 @Setter
 public class Member {
 
     // 1) id 의 데이터베이스 애트리뷰트 이름을 member_id로 설정한다
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "member_seq_generator")
+    @SequenceGenerator(name = "member_seq_generator", sequenceName = "member_seq", allocationSize = 50)
     @Column(name = "member_id")
     private Long id;
 
@@ -4,6 +4,7 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.Hibernate;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
@@ -13,13 +14,35 @@ import java.util.List;
 // 2 번째 생성
 // 1) Table annotation으로 테이블의 이름을 바꿀 수도 있다
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", indexes = {
+        @Index(name = "idx_orders_total_price", columnList = "total_price"), // 총액 필터, 정렬 (OrderSearch)
+        @Index(name = "idx_orders_order_date_id", columnList = "order_date, order_id"), // 주문시간 순 cursor 페이징, 주문일 범위 검색
+        @Index(name = "idx_orders_status_order_date", columnList = "status, order_date"), // 주문상태 + 주문일 범위 검색
+        @Index(name = "idx_orders_member_id_order_date", columnList = "member_id, order_date") // 회원(이름 색인의 후보 id) + 주문일 범위 검색
+})
+// fetch plan, 조회할 때 같이 읽어올 연관 엔티티 (OrderFetchPlan)
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = "Order.withMember", attributeNodes = @NamedAttributeNode("member")),
+        @NamedEntityGraph(name = "Order.withMemberDelivery", attributeNodes = {
+                @NamedAttributeNode("member"),
+                @NamedAttributeNode("delivery")
+        }),
+        @NamedEntityGraph(name = "Order.withAll", attributeNodes = {
+                @NamedAttributeNode("member"),
+                @NamedAttributeNode("delivery"),
+                @NamedAttributeNode(value = "orderItems", subgraph = "orderItems")
+        }, subgraphs = @NamedSubgraph(name = "orderItems", attributeNodes = @NamedAttributeNode("item")))
+})
 @Getter
 @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 public class Order {
 
-    @Id @GeneratedValue
+    // 그냥 @GeneratedValue면 insert 할때마다 hibernate_sequence를 한번씩 호출한다 (주문 1건에 Order, Delivery, OrderItem 3번)
+    // 엔티티별 시퀀스에서 allocationSize 만큼 한번에 받아두고 메모리에서 나눠준다 (pooled-lo, application.yml 참고)
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_seq_generator")
+    @SequenceGenerator(name = "order_seq_generator", sequenceName = "orders_seq", allocationSize = 50)
     @Column(name = "order_id")
     private Long id;
 
@@ -46,6 +69,12 @@ public class Order {
     @Enumerated(EnumType.STRING)
     private OrderStatus status; // 주문상태 [ORDER, CANCEL]
 
+    // 주문 총액, getTotalPrice를 부를 때마다 orderItems를 로딩해서 더하지 않도록 주문 상품을 추가할 때 같이 계산해서 저장해둔다
+    // 주문 상품 추가(addOrderItem)로만 바뀌어야 하므로 setter는 막아둔다
+    // 취소해도 주문 당시의 총액은 그대로 남긴다 (주문 목록, 검색 정렬에서 취소된 주문의 금액도 보여줘야 함)
+    @Setter(AccessLevel.NONE)
+    private int totalPrice;
+
 
 
 
@@ -54,7 +83,12 @@ public class Order {
     // 연관관계 메서드의 위치는 중간에 껴 있는 놈을 중심으로 하면 좋다
     public void setMember(Member member) {
         this.member = member;
-        member.getOrders().add(this);
+        // 회원의 orders가 아직 로딩되지 않았으면 건드리지 않는다
+        // 여기서 컬렉션을 초기화하면 주문할 때마다 그 회원의 과거 주문 전체를 select 하게 된다 (주문이 많은 회원일수록 느려짐)
+        // 로딩되지 않은 컬렉션은 나중에 로딩될 때 db에서 이번 주문까지 같이 읽어오므로 양방향 관계가 깨지지 않는다
+        if(Hibernate.isInitialized(member.getOrders())) {
+            member.getOrders().add(this);
+        }
     }
     /* 원래는 이런식으로 되는 과정
     public static void main(String[] args) {
@@ -67,6 +101,7 @@ public class Order {
     public void addOrderItem(OrderItem orderItem) {
         orderItems.add(orderItem);
         orderItem.setOrder(this);
+        totalPrice += orderItem.getTotalPrice();
     }
     public void setDelivery(Delivery delivery) {
         this.delivery = delivery;
@@ -93,24 +128,20 @@ public class Order {
     // 비즈니스 로직
     // 주문 취소
     public void cancel() {
-        if(delivery.getStatus() == DeliveryStatus.COMP) {
-            throw new IllegalStateException("배송완료된 상품은 취소가 불가능합니다");
-        }
-
-        this.setStatus(OrderStatus.CANCEL);
+        cancelStatus();
         for(OrderItem orderItem : this.orderItems) {
             orderItem.cancel();
         }
     }
 
-    // 조회 로직
-    // 전체 가격 조회
-    public int getTotalPrice() {
-        int totalPrice = 0;
-        for(OrderItem orderItem : this.orderItems) {
-            totalPrice += orderItem.getTotalPrice();
+    // 주문 상태만 취소로 바꾼다
+    // 재고 복구를 엔티티가 아니라 db의 상대값 update로 처리하는 경우 (OrderService.cancelOrder) 사용한다
+    public void cancelStatus() {
+        if(delivery.getStatus() == DeliveryStatus.COMP) {
+            throw new IllegalStateException("배송완료된 상품은 취소가 불가능합니다");
         }
-        return totalPrice;
+
+        this.setStatus(OrderStatus.CANCEL);
     }
 }
 
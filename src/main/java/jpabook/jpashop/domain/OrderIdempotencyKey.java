@@ -0,0 +1,69 @@
+package jpabook.jpashop.domain;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/*
+ 주문 요청의 Idempotency-Key 와 그 요청으로 만들어진 주문 id
+ (회원, 키)가 pk라서 같은 회원이 같은 키로 주문을 두번 저장하는 것을 db가 막아준다
+ 키는 회원마다 따로 본다 -> 다른 회원이 우연히 같은 키를 써도 남의 주문 id를 받지 않는다
+ 메모리 캐시(IdempotentOrderService)에서 크기 제한으로 밀려난 키는 이 테이블에서 다시 찾는다
+ 캐시 만료 시간이 지난 키는 IdempotentOrderService가 주기적으로 지운다 (재시도를 받아주는 기간은 캐시와 테이블이 같다)
+*/
+@Entity
+@IdClass(OrderIdempotencyKey.Pk.class)
+@Table(indexes = @Index(name = "idx_order_idempotency_key_created_at", columnList = "created_at")) // 만료된 키 삭제
+@Getter
+@Setter
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+public class OrderIdempotencyKey {
+
+    public static final int MAX_KEY_LENGTH = 100; // 헤더 검사(OrderApiController)와 컬럼 길이가 같아야 한다
+
+    @Id
+    @Column(name = "member_id")
+    private Long memberId;
+
+    @Id
+    @Column(name = "idempotency_key", length = MAX_KEY_LENGTH)
+    private String idempotencyKey;
+
+    @Column(name = "order_id")
+    private Long orderId;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // 생성 메서드
+    public static OrderIdempotencyKey createOrderIdempotencyKey(Long memberId, String key, Long orderId) {
+        OrderIdempotencyKey idempotencyKey = new OrderIdempotencyKey();
+        idempotencyKey.setMemberId(memberId);
+        idempotencyKey.setIdempotencyKey(key);
+        idempotencyKey.setOrderId(orderId);
+        idempotencyKey.setCreatedAt(LocalDateTime.now());
+        return idempotencyKey;
+    }
+
+    // 복합 키 (회원 id, 키), @IdClass
+    @Getter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Pk implements Serializable {
+        private Long memberId;
+        private String idempotencyKey;
+    }
+}
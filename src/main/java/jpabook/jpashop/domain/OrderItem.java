@@ -11,12 +11,15 @@ import javax.persistence.*;
 
 // 4 번째 생성
 @Entity
+@Table(indexes = @Index(name = "idx_order_item_item_id", columnList = "item_id")) // 상품명 검색 : 상품 -> 주문 상품 -> 주문
 @Getter
 @Setter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 public class OrderItem {
 
-    @Id @GeneratedValue
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_item_seq_generator")
+    @SequenceGenerator(name = "order_item_seq_generator", sequenceName = "order_item_seq", allocationSize = 100)
     @Column(name = "order_item_id")
     private Long id;
 
@@ -32,6 +35,7 @@ public class OrderItem {
 
     private int orderPrice; // 주문 가격
     private int count; // 주문 수량
+    private boolean flashSale; // flash sale 메모리 재고에서 가져간 수량 (db 재고는 flush 때 차감된다)
 
 
 
@@ -41,12 +45,19 @@ public class OrderItem {
     // 생성 메서드
     // 생성 메서드를 통해서만 생성해라 라는 annotation @NoArgsConstructor(access = AccessLevel.PROTECTED)
     public static OrderItem createOrderItem(Item item, int orderPrice, int count) {
+        OrderItem orderItem = createReservedOrderItem(item, orderPrice, count);
+
+        item.removeStock(count);
+        return orderItem;
+    }
+
+    // 재고 차감이 이미 db에서 끝난 경우 (ItemRepository.removeStock 조건부 update) 사용하는 생성 메서드
+    // 여기서 item.removeStock을 또 부르면 재고가 두번 빠지게 된다
+    public static OrderItem createReservedOrderItem(Item item, int orderPrice, int count) {
         OrderItem orderItem = new OrderItem();
         orderItem.setItem(item);
         orderItem.setOrderPrice(orderPrice);
         orderItem.setCount(count);
-
-        item.removeStock(count);
         return orderItem;
     }
 
@@ -59,7 +70,7 @@ public class OrderItem {
         getItem().addStock(count);
     }
 
-    // Order의 조회 로직인 getTotalPrice 함수에서 넘어온 함수이다. 여기서 주문 가격을 리턴해 줘야함
+    // Order의 addOrderItem에서 주문 총액을 계산할 때 쓰는 함수이다. 여기서 주문 가격을 리턴해 줘야함
     public int getTotalPrice() {
         return getOrderPrice() *  getCount();
     }
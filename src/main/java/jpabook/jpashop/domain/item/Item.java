@@ -4,6 +4,8 @@ import jpabook.jpashop.domain.Category;
 import jpabook.jpashop.exception.NotEnoughStockException;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.ArrayList;
@@ -12,7 +14,10 @@ import java.util.List;
 // 5 번째 생성
 // 추상클래스로 작성함 상속을 해줘야하는 클래스이기 때문이다
 // 상속 관련 annotation을 정의해줘야 한다 Inheritance, DiscriminatorColumn
+// 2차 캐시, 재고 update는 ItemRepository에서 해당 상품만 evict 한다
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "item")
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
 @DiscriminatorColumn(name = "dtype")
 @Getter
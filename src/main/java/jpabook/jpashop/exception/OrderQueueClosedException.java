@@ -0,0 +1,25 @@
+package jpabook.jpashop.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// 주문 대기열(OrderIngestionQueue)이 멈춘 뒤(서버 종료 중)에 들어온 주문, 또는 종료할 때까지 저장하지 못한 주문
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class OrderQueueClosedException extends RuntimeException {
+
+    public OrderQueueClosedException() {
+        super();
+    }
+
+    public OrderQueueClosedException(String message) {
+        super(message);
+    }
+
+    public OrderQueueClosedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OrderQueueClosedException(Throwable cause) {
+        super(cause);
+    }
+}
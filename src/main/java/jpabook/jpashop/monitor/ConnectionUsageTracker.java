@@ -0,0 +1,121 @@
+package jpabook.jpashop.monitor;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ 커넥션 사용 시간 측정 (hikari 커넥션 풀)
+ 커넥션을 빌려서 돌려줄 때까지 걸린 시간 = 요청이 커넥션을 잡고 있던 시간
+ open-in-view가 켜져 있으면 화면을 다 그릴 때까지, 꺼져 있으면 트랜잭션이 끝날 때까지 잡는다
+ /api/v1/connection-stats 로 본다, open-in-view를 켰을 때와 비교는 ./gradlew benchmark (ConnectionHoldTimeBenchmark)
+*/
+@Component
+public class ConnectionUsageTracker implements MetricsTrackerFactory, BeanPostProcessor {
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAccumulator maxUsageMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong resetAt = new AtomicLong(System.currentTimeMillis());
+    // 스레드별 {빌린 수, 돌려준 수}, hikari는 빌린 스레드와 close 한 스레드에서 각각 기록한다
+    private final ThreadLocal<long[]> threadCounts = ThreadLocal.withInitial(() -> new long[2]);
+
+    // 커넥션 풀이 만들어지기 전에 hikari에 등록한다 (p6spy가 감싼 DataSource여도 안쪽의 hikari를 찾는다)
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource) {
+            try {
+                DataSource dataSource = (DataSource) bean;
+                if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                    dataSource.unwrap(HikariDataSource.class).setMetricsTrackerFactory(this);
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bean;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquired.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                threadCounts.get()[0]++;
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                borrowed.increment();
+                threadCounts.get()[1]++;
+                usageMillis.add(elapsedBorrowedMillis);
+                maxUsageMillis.accumulate(elapsedBorrowedMillis);
+            }
+        };
+    }
+
+    public Stats stats() {
+        long count = borrowed.sum();
+        return new Stats(acquired.sum(), count,
+                count == 0 ? 0 : usageMillis.sum() / (double) count,
+                maxUsageMillis.get(),
+                count == 0 ? 0 : acquireNanos.sum() / 1_000_000.0 / count,
+                System.currentTimeMillis() - resetAt.get());
+    }
+
+    /*
+     현재 스레드가 지금까지 빌린/돌려준 커넥션 수 (reset과 상관없다)
+     스케줄러 같은 다른 스레드가 같은 때에 빌린 커넥션은 섞이지 않으므로 요청 스레드가 커넥션을 다 돌려줬는지 볼 수 있다
+    */
+    public ThreadCounts currentThread() {
+        long[] counts = threadCounts.get();
+        return new ThreadCounts(counts[0], counts[1]);
+    }
+
+    public void reset() {
+        acquired.reset();
+        borrowed.reset();
+        usageMillis.reset();
+        maxUsageMillis.reset();
+        acquireNanos.reset();
+        resetAt.set(System.currentTimeMillis());
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Stats {
+        private long acquiredCount; // 풀에서 커넥션을 빌린 횟수
+        private long borrowedCount; // 커넥션을 빌렸다 돌려준 횟수
+        private double avgUsageMillis; // 한번 빌려서 잡고 있던 평균 시간
+        private long maxUsageMillis;
+        private double avgAcquireMillis; // 풀에서 커넥션을 받기까지 기다린 평균 시간
+        private long sinceResetMillis;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class ThreadCounts {
+        private long acquiredCount;
+        private long returnedCount;
+
+        // 빌리고 아직 돌려주지 않은 커넥션 수
+        public long getHeldCount() {
+            return acquiredCount - returnedCount;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.domain.FlashSale;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface FlashSaleRepository extends JpaRepository<FlashSale, Long> {
+
+    // select f from FlashSale f where f.active = true
+    List<FlashSale> findByActiveTrue();
+}
@@ -2,15 +2,27 @@ package jpabook.jpashop.repository;
 
 import jpabook.jpashop.domain.item.Item;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.query.NativeQuery;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.Cache;
+import javax.persistence.CacheStoreMode;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 @Repository
 @RequiredArgsConstructor
 public class ItemRepository {
 
+    // 어떤 엔티티 테이블과도 이름이 겹치지 않는 query space, 재고 native update가 2차 캐시 region을 통째로 비우지 않게 한다
+    private static final String STOCK_QUERY_SPACE = "item_stock";
+
     private final EntityManager em;
 
     public void save(Item item) {
@@ -32,9 +44,87 @@ public class ItemRepository {
         return em.find(Item.class, id);
     }
 
+    // 비관적 락(select ... for update)으로 조회, flash sale 시작처럼 재고를 스냅샷 떠야 하는 드문 작업에서만 사용한다
+    public Item findOneForUpdate(Long id) {
+        return em.find(Item.class, id, LockModeType.PESSIMISTIC_WRITE);
+    }
+
     public List<Item> findAll() {
         return em.createQuery("select i from Item i", Item.class)
                 .getResultList();
     }
 
+    /*
+     재고 차감을 조건부 update 한번으로 처리한다
+     Item.removeStock 처럼 읽고 -> 검사하고 -> 쓰는 방식은 동시에 들어온 주문 두개가 같은 재고를 보고 둘다 통과할 수 있다 (oversell)
+     where 절에 재고 검사를 넣으면 db가 row 단위로 원자적으로 처리해주기 때문에 비관적 락 없이도 재고가 음수가 되지 않는다
+     리턴값은 변경된 row 수 -> 0이면 재고가 부족하다는 의미
+     주의) 벌크 연산이라 영속성 컨텍스트를 거치지 않으므로 이미 조회된 item은 refresh 해줘야 한다
+
+     2차 캐시 : jpql 벌크 update는 item region 전체를 비워버려서 주문이 들어올 때마다 모든 상품 캐시가 날아간다
+     그래서 native sql로 보내고 캐시와 관계없는 query space(STOCK_QUERY_SPACE)만 지정해서 전체 무효화를 막고,
+     바뀐 상품 하나만 직접 evict 한다 (stockChanged)
+     재고 검사는 항상 db의 조건부 update가 하므로 캐시에 남은 재고 값이 잠깐 오래된 값이어도 oversell은 생기지 않는다
+    */
+    public int removeStock(Long itemId, int quantity) {
+        int updated = stockUpdate(
+                "update item set stock_quantity = stock_quantity - :quantity" +
+                        " where item_id = :itemId and stock_quantity >= :quantity")
+                .setParameter("quantity", quantity)
+                .setParameter("itemId", itemId)
+                .executeUpdate();
+        stockChanged(itemId);
+        return updated;
+    }
+
+    // 주문 취소 시 재고 복구, 마찬가지로 현재 값에 더하는 update라서 동시에 들어온 주문의 차감을 덮어쓰지 않는다
+    public int addStock(Long itemId, int quantity) {
+        int updated = stockUpdate(
+                "update item set stock_quantity = stock_quantity + :quantity" +
+                        " where item_id = :itemId")
+                .setParameter("quantity", quantity)
+                .setParameter("itemId", itemId)
+                .executeUpdate();
+        stockChanged(itemId);
+        return updated;
+    }
+
+    private Query stockUpdate(String sql) {
+        Query query = em.createNativeQuery(sql);
+        query.unwrap(NativeQuery.class).addSynchronizedQuerySpace(STOCK_QUERY_SPACE);
+        return query;
+    }
+
+    /*
+     바뀐 상품을 2차 캐시에서 지금 한번, 트랜잭션이 끝난 다음 한번 더 evict 한다
+     커밋 전에 다른 트랜잭션이 이전 재고를 읽어서 캐시에 다시 넣었을 수 있기 때문
+    */
+    private void stockChanged(Long itemId) {
+        Cache cache = em.getEntityManagerFactory().getCache();
+        cache.evict(Item.class, itemId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.evict(Item.class, itemId);
+                }
+            });
+        }
+    }
+
+    /*
+     벌크 update 이후 영속성 컨텍스트의 item을 db 값으로 다시 맞춘다
+     아직 커밋되지 않은 재고 값이 2차 캐시에 들어가지 않도록 refresh 결과는 캐시에 저장하지 않는다
+    */
+    public void refresh(Item item) {
+        em.refresh(item, Collections.singletonMap("javax.persistence.cache.storeMode", CacheStoreMode.BYPASS));
+    }
+
+    // 여러 상품 주문 시 상품마다 findOne을 부르지 않고 in 쿼리 한번으로 가져온다
+    public List<Item> findAllByIds(Collection<Long> itemIds) {
+        return em.createQuery("select i from Item i where i.id in :itemIds", Item.class)
+                .setParameter("itemIds", itemIds)
+                .getResultList();
+    }
+
 }
@@ -0,0 +1,216 @@
+package jpabook.jpashop.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ 회원 이름 n-gram 색인 (메모리)
+ m.name like '%xx%' 는 인덱스를 못 타서 member 테이블 전체를 읽는다
+ 이름의 1~3글자 조각마다 회원 id 목록을 들고 있다가 검색어 조각들의 목록을 교집합해서 후보 회원 id를 바로 찾는다
+ -> 검색 시간은 회원 테이블 크기가 아니라 검색어 조각에 해당하는 회원 수에 비례한다
+
+ 색인은 후보를 찾는 용도이고 최종 확인은 db 쿼리의 like 조건이 한다
+ 그래서 색인에 회원이 더 들어있는 것(커밋 전 이름, 이전 이름)은 괜찮지만 빠지면 안된다
+ -> 새 이름은 insert/update 문이 실행된 직후(@PostPersist, @PostUpdate)에 바로 넣고, 이전 이름은 커밋 후에 / 새 이름은 롤백 후에 뺀다 (MemberNameIndexListener)
+ 후보 id를 검색 조건(in 절)으로 쓰는 건 색인이 완전할 때(isComplete)뿐이다, 아니면 like 조건만 쓴다 (OrderRepository, OrderSearchQueryRepository)
+ -> 시작할 때 db의 회원 전체를 다 넣기 전, 그리고 서버 인스턴스가 여러 대일 때(다른 인스턴스에서 가입/변경한 회원은 이 색인에 없다)는 완전하지 않다
+ 엔티티를 거치지 않고 바꾼 이름(bulk update, native query)도 색인에 없다
+ -> 회원 이름을 그렇게 바꾸면 rebuild 해야 한다, 그 전까지 그 회원은 후보가 하나도 없을 때만(like 조건만으로 검색할 때) 찾아진다
+*/
+@Component
+public class MemberNameIndex {
+
+    private static final int GRAM = 3;
+
+    // 후보 회원이 이보다 많거나 하나도 없으면 id 조건(in 절)으로 넘기지 않고 like 조건만 쓴다 (한 글자 검색처럼 대부분의 회원이 걸리는 경우)
+    public static final int MAX_ID_PREDICATE = 1000;
+
+    private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+    private final Map<Long, Set<String>> namesById = new ConcurrentHashMap<>();
+
+    // 이 인스턴스 하나만 회원을 저장/변경하는지 (jpashop.member-name-index.single-instance)
+    private final boolean singleInstance;
+    // db의 회원 전체를 다 넣었는지, rebuild가 끝나기 전에는 false
+    private volatile boolean complete;
+
+    public MemberNameIndex(@Value("${jpashop.member-name-index.single-instance:true}") boolean singleInstance) {
+        this.singleInstance = singleInstance;
+    }
+
+    /*
+     검색어 조각에 해당하는 회원 id
+     검색어가 3글자 이하면 해당 조각의 목록 그대로, 더 길면 3글자 조각들의 목록을 교집합한 뒤 이름에 실제로 포함되는지 확인한다
+    */
+    public Set<Long> findIds(String fragment) {
+        String key = normalize(fragment);
+        if (key.isEmpty()) {
+            return Collections.emptySet();
+        }
+        if (key.length() <= GRAM) {
+            return copy(postings.get(key));
+        }
+
+        Set<Long> candidates = null;
+        for (String gram : grams(key, GRAM)) {
+            Set<Long> ids = postings.get(gram);
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            if (candidates == null) {
+                candidates = copy(ids);
+            } else {
+                candidates.retainAll(ids);
+            }
+            if (candidates.isEmpty()) {
+                return candidates;
+            }
+        }
+        candidates.removeIf(id -> !containsName(id, key));
+        return candidates;
+    }
+
+    /*
+     회원 저장/이름 변경 시 (MemberNameIndexListener의 @PostPersist, @PostUpdate -> insert/update 문이 실행된 직후)
+     새 이름은 바로 넣어서 커밋 직후의 검색에서 빠지지 않게 하고, 트랜잭션이 끝나면 남길 이름만 남긴다
+    */
+    public void indexInTransaction(Long memberId, String name) {
+        if (memberId == null || name == null) {
+            return;
+        }
+        boolean added = add(memberId, name);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            retainOnly(memberId, name);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    retainOnly(memberId, name);
+                } else if (added) {
+                    remove(memberId, name);
+                }
+            }
+        });
+    }
+
+    /*
+     db의 회원 전체를 넣는다 (시작할 때, bulk update로 이름을 바꾼 뒤)
+     비우고 다시 채우지 않는다 -> 그 사이에 리스너가 넣은 회원이 잠깐이라도 빠지지 않게
+     읽어온 뒤에 바뀐 이전 이름이 남을 수 있지만 색인에 더 있는 건 like 조건이 걸러낸다
+    */
+    public synchronized void rebuild(List<Object[]> idAndNames) {
+        for (Object[] idAndName : idAndNames) {
+            add((Long) idAndName[0], (String) idAndName[1]);
+        }
+        complete = singleInstance;
+    }
+
+    // 색인에 없는 회원이 없는지, true일 때만 후보 id를 검색 조건으로 쓸 수 있다
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int size() {
+        return namesById.size();
+    }
+
+    private synchronized boolean add(Long memberId, String name) {
+        String key = normalize(name);
+        if (!namesById.computeIfAbsent(memberId, id -> ConcurrentHashMap.newKeySet()).add(key)) {
+            return false;
+        }
+        for (String gram : allGrams(key)) {
+            postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(memberId);
+        }
+        return true;
+    }
+
+    private synchronized void retainOnly(Long memberId, String name) {
+        Set<String> names = namesById.get(memberId);
+        if (names == null) {
+            return;
+        }
+        String key = normalize(name);
+        for (String other : new ArrayList<>(names)) {
+            if (!other.equals(key)) {
+                remove(memberId, other);
+            }
+        }
+    }
+
+    private synchronized void remove(Long memberId, String name) {
+        Set<String> names = namesById.get(memberId);
+        String key = normalize(name);
+        if (names == null || !names.remove(key)) {
+            return;
+        }
+        // 같은 회원의 남은 이름에도 있는 조각은 남겨둔다
+        Set<String> remaining = new HashSet<>();
+        names.forEach(other -> remaining.addAll(allGrams(other)));
+        for (String gram : allGrams(key)) {
+            if (remaining.contains(gram)) {
+                continue;
+            }
+            Set<Long> ids = postings.get(gram);
+            if (ids != null) {
+                ids.remove(memberId);
+                if (ids.isEmpty()) {
+                    postings.remove(gram, ids);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            namesById.remove(memberId, names);
+        }
+    }
+
+    private boolean containsName(Long memberId, String key) {
+        Set<String> names = namesById.get(memberId);
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            if (name.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 1 ~ 3글자 조각 전부
+    private static Set<String> allGrams(String key) {
+        Set<String> grams = new HashSet<>();
+        for (int n = 1; n <= GRAM; n++) {
+            grams.addAll(grams(key, n));
+        }
+        return grams;
+    }
+
+    private static List<String> grams(String key, int n) {
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + n <= key.length(); i++) {
+            grams.add(key.substring(i, i + n));
+        }
+        return grams;
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<Long> copy(Set<Long> ids) {
+        return ids == null ? new HashSet<>() : new HashSet<>(ids);
+    }
+}
@@ -0,0 +1,26 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.domain.Member;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostUpdate;
+
+/*
+ Member 엔티티 리스너, 회원이 insert/update 될 때 이름 색인(MemberNameIndex)을 갱신한다
+ MemberService.join, update 말고 다른 경로(InitDb 등)로 저장된 회원도 빠지지 않도록 엔티티에 건다
+ hibernate가 스프링 bean container로 생성하므로 생성자 주입이 된다
+*/
+public class MemberNameIndexListener {
+
+    private final MemberNameIndex memberNameIndex;
+
+    public MemberNameIndexListener(MemberNameIndex memberNameIndex) {
+        this.memberNameIndex = memberNameIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void index(Member member) {
+        memberNameIndex.indexInTransaction(member.getId(), member.getName());
+    }
+}
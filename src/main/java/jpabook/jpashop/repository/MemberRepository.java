@@ -2,6 +2,7 @@ package jpabook.jpashop.repository;
 
 import jpabook.jpashop.domain.Member;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
@@ -21,4 +22,8 @@ public interface MemberRepository extends JpaRepository<Member, Long> {
      select m from Member m where m.name = :name
     */
     List<Member> findByName(String name);
+
+    // 회원 이름 색인(MemberNameIndex)을 만들 때 사용, 엔티티 대신 id와 이름만 읽는다
+    @Query("select m.id, m.name from Member m")
+    List<Object[]> findAllIdAndName();
 }
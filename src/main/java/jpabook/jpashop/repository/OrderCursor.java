@@ -0,0 +1,75 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.exception.InvalidCursorException;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/*
+ keyset(cursor) 페이징에서 "마지막으로 본 주문"의 위치
+ offset 페이징은 건너뛸 row를 db가 전부 읽고 버려야 해서 뒤쪽 페이지로 갈수록 느려지지만
+ cursor 페이징은 (order_date, order_id) 또는 order_id 인덱스에서 바로 다음 위치부터 읽는다
+
+ 클라이언트에게는 내부 구조를 숨기기 위해 base64 문자열(token)로만 주고 받는다
+*/
+@Getter
+public class OrderCursor {
+
+    // 정렬 기준, ID는 order_id 순, ORDER_DATE는 (order_date, order_id) 순
+    public enum Key {
+        ID, ORDER_DATE
+    }
+
+    private static final String SEPARATOR = "|";
+
+    private final Key key;
+    private final Long lastOrderId;
+    private final LocalDateTime lastOrderDate; // key가 ORDER_DATE일 때만 사용
+
+    private OrderCursor(Key key, Long lastOrderId, LocalDateTime lastOrderDate) {
+        this.key = key;
+        this.lastOrderId = lastOrderId;
+        this.lastOrderDate = lastOrderDate;
+    }
+
+    // 첫 페이지 (아직 본 주문이 없음)
+    public static OrderCursor first(Key key) {
+        return new OrderCursor(key, null, null);
+    }
+
+    public static OrderCursor after(Key key, Long lastOrderId, LocalDateTime lastOrderDate) {
+        return new OrderCursor(key, lastOrderId, lastOrderDate);
+    }
+
+    public boolean isFirst() {
+        return lastOrderId == null;
+    }
+
+    public String encode() {
+        String raw = key + SEPARATOR + lastOrderId + SEPARATOR + (lastOrderDate == null ? "" : lastOrderDate);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static OrderCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            if (parts.length != 3) {
+                throw new InvalidCursorException("잘못된 cursor 입니다.");
+            }
+            Key key = Key.valueOf(parts[0]);
+            Long lastOrderId = Long.valueOf(parts[1]);
+            LocalDateTime lastOrderDate = parts[2].isEmpty() ? null : LocalDateTime.parse(parts[2]);
+            if (key == Key.ORDER_DATE && lastOrderDate == null) {
+                throw new InvalidCursorException("잘못된 cursor 입니다.");
+            }
+            return new OrderCursor(key, lastOrderId, lastOrderDate);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // base64 디코딩 실패, enum/숫자 변환 실패 (NumberFormatException도 IllegalArgumentException)
+            throw new InvalidCursorException("잘못된 cursor 입니다.", e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package jpabook.jpashop.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/*
+ 주문 조회 fetch plan (Order의 @NamedEntityGraph)
+ open-in-view를 껐으므로 트랜잭션이 끝난 뒤(화면, json 변환)에는 지연 로딩이 되지 않는다
+ -> 화면/api가 쓰는 연관 엔티티를 컨트롤러가 plan으로 정해서 넘기고, 조회 쿼리에서 한번에 읽어온다
+ plan 밖의 연관 엔티티를 트랜잭션 밖에서 건드리면 LazyInitializationException으로 바로 드러난다
+
+ 컬렉션(orderItems)이 들어간 plan은 페이징 쿼리에 쓸 수 없다 (hibernate가 전체를 읽어서 메모리에서 자른다)
+ -> id를 먼저 페이징해서 찾고 id in 쿼리에 plan을 건다 (OrderRepository.findAllByIds)
+ 검사는 페이징을 하는 repository 메서드가 isCollection을 보고 한다 (applyTo 시점에는 페이징이 아직 안 걸렸을 수 있다)
+*/
+public enum OrderFetchPlan {
+
+    MEMBER("Order.withMember", false),
+    MEMBER_DELIVERY("Order.withMemberDelivery", false),
+    ALL("Order.withAll", true); // 회원, 배송, 주문 상품, 상품
+
+    private static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
+
+    private final String graphName;
+    private final boolean collection;
+
+    OrderFetchPlan(String graphName, boolean collection) {
+        this.graphName = graphName;
+        this.collection = collection;
+    }
+
+    public boolean isCollection() {
+        return collection;
+    }
+
+    public <T> TypedQuery<T> applyTo(EntityManager em, TypedQuery<T> query) {
+        return query.setHint(FETCH_GRAPH, em.getEntityGraph(graphName));
+    }
+}
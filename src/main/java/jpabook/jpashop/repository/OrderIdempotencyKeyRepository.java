@@ -0,0 +1,34 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.domain.OrderIdempotencyKey;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+
+/*
+ JpaRepository의 save는 id가 채워져 있으면 merge를 하기 때문에 insert 전에 select가 한번 더 나간다
+ 키는 항상 새로 넣는 값이므로 persist를 직접 호출한다
+*/
+@Repository
+@RequiredArgsConstructor
+public class OrderIdempotencyKeyRepository {
+
+    private final EntityManager em;
+
+    public void save(OrderIdempotencyKey idempotencyKey) {
+        em.persist(idempotencyKey);
+    }
+
+    public OrderIdempotencyKey findOne(Long memberId, String key) {
+        return em.find(OrderIdempotencyKey.class, new OrderIdempotencyKey.Pk(memberId, key));
+    }
+
+    // 만료된 키 삭제, 엔티티를 하나씩 읽지 않고 bulk delete 한번으로 지운다 (created_at 인덱스)
+    public int deleteCreatedBefore(LocalDateTime time) {
+        return em.createQuery("delete from OrderIdempotencyKey k where k.createdAt < :time")
+                .setParameter("time", time)
+                .executeUpdate();
+    }
+}
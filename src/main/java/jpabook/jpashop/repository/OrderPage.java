@@ -0,0 +1,35 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.domain.Order;
+import lombok.Getter;
+
+import java.util.List;
+
+/*
+ 주문 검색 한 페이지
+ 다음 페이지 유무는 size + 1 건을 읽어서 판단하고 (count 없이)
+ 전체 건수는 최대 countLimit 건까지만 센다 -> 검색 결과가 아무리 많아도 페이지를 그리는 비용은 일정하다
+*/
+@Getter
+public class OrderPage {
+
+    private final List<Order> orders;
+    private final int page; // 0부터 시작
+    private final int size;
+    private final boolean hasNext;
+    private final long totalCount; // totalCountExact가 false면 "totalCount건 이상"
+    private final boolean totalCountExact;
+
+    public OrderPage(List<Order> orders, int page, int size, boolean hasNext, long totalCount, boolean totalCountExact) {
+        this.orders = orders;
+        this.page = page;
+        this.size = size;
+        this.hasNext = hasNext;
+        this.totalCount = totalCount;
+        this.totalCountExact = totalCountExact;
+    }
+
+    public boolean isHasPrevious() {
+        return page > 0;
+    }
+}
@@ -1,24 +1,46 @@
 package jpabook.jpashop.repository;
 
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
+import jpabook.jpashop.domain.DeliveryStatus;
 import jpabook.jpashop.domain.Order;
 import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.domain.QDelivery;
 import jpabook.jpashop.domain.QMember;
 import jpabook.jpashop.domain.QOrder;
+import jpabook.jpashop.domain.QOrderItem;
+import jpabook.jpashop.domain.item.QItem;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.annotations.QueryHints;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
+import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Subgraph;
 import javax.persistence.TypedQuery;
+import javax.persistence.metamodel.EntityType;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Repository
 @RequiredArgsConstructor
 public class OrderRepository {
 
     private final EntityManager em;
+    private final JPAQueryFactory queryFactory; // JpashopApplication의 공유 bean
+    private final MemberNameIndex memberNameIndex;
+
+    private static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
 
     public void save(Order order) {
         em.persist(order);
@@ -28,8 +50,105 @@ public class OrderRepository {
         return em.find(Order.class, id);
     }
 
+    // 비관적 락(select ... for update)으로 조회, 같은 주문을 동시에 취소해서 재고가 두번 복구되지 않도록 취소에서만 사용한다
+    public Order findOneForUpdate(Long id) {
+        return em.find(Order.class, id, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    /*
+     대량 주문 취소용 비관적 락
+     주문 row만 잠근다 (fetch join과 같이 쓰면 distinct와 for update를 같이 쓸 수 없고 배송, 주문 상품 row까지 잠긴다)
+     id 순서대로 잠가서 겹치는 주문을 동시에 취소하는 요청끼리 데드락이 나지 않게 한다
+     락을 잡은 다음에 읽은 상태이므로 먼저 커밋된 취소가 보인다
+    */
+    public List<Order> lockAllByIds(List<Long> orderIds) {
+        return em.createQuery(
+                "select o from Order o" +
+                        " where o.id in :orderIds" +
+                        " order by o.id", Order.class)
+                .setParameter("orderIds", orderIds)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+    }
+
+    /*
+     from 이후에 flash sale 메모리 재고로 판 주문 상품 수량 합계 (flash sale 재시작 시 db에 반영되지 못한 판매 계산용)
+     취소된 주문도 포함한다 -> 취소는 db 재고에 바로 복구되므로 판매 쪽에서는 빼지 않는다 (FlashSale.flushedSold와 같은 기준)
+     flash sale 전에 들어온 주문은 flashSale이 false라서 세지 않는다
+    */
+    public long sumFlashSaleCount(Long itemId, LocalDateTime from) {
+        Long sum = em.createQuery(
+                "select sum(oi.count) from OrderItem oi" +
+                        " join oi.order o" +
+                        " where oi.item.id = :itemId" +
+                        " and oi.flashSale = true" +
+                        " and o.orderDate >= :from", Long.class)
+                .setParameter("itemId", itemId)
+                .setParameter("from", from)
+                .getSingleResult();
+        return sum == null ? 0 : sum;
+    }
+
+    /*
+     대량 주문 취소용 조회
+     delivery(배송완료 검사)와 orderItems(재고 복구 수량)를 한번에 가져온다
+     item은 id만 있으면 되므로 fetch join 하지 않는다 (프록시의 getId는 쿼리를 날리지 않음)
+    */
+    public List<Order> findAllWithDeliveryItems(List<Long> orderIds) {
+        return em.createQuery(
+                "select distinct o from Order o" +
+                        " join fetch o.delivery d" +
+                        " join fetch o.orderItems oi" +
+                        " where o.id in :orderIds", Order.class)
+                .setParameter("orderIds", orderIds)
+                .getResultList();
+    }
+
+    /*
+     주문 검색에서 찾은 페이지의 id로 주문을 읽는다 (OrderService.findOrders)
+     연관 엔티티는 fetch plan대로 같이 읽는다, 이미 페이지만큼의 id이므로 컬렉션이 들어간 plan도 쓸 수 있다
+     id 순서(검색 결과의 정렬)대로 돌려준다, 그 사이에 지워진 주문은 빠진다
+    */
+    public List<Order> findAllByIds(List<Long> orderIds, OrderFetchPlan fetchPlan) {
+        if (orderIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Order> orders = new HashMap<>();
+        fetchPlan.applyTo(em, em.createQuery(
+                "select distinct o from Order o" +
+                        " where o.id in :orderIds", Order.class))
+                .setParameter("orderIds", orderIds)
+                .getResultList()
+                .forEach(o -> orders.put(o.getId(), o));
+
+        List<Order> result = new ArrayList<>(orderIds.size());
+        for (Long orderId : orderIds) {
+            Order order = orders.get(orderId);
+            if (order != null) {
+                result.add(order);
+            }
+        }
+        return result;
+    }
+
     // 주문 검색
     public List<Order> findAllByString(OrderSearch orderSearch) {
+        return searchByString("select o", orderSearch, Order.class).getResultList();
+    }
+
+    /*
+     fetch plan의 연관 엔티티를 같이 읽는 주문 검색 (api v1, v2)
+     검색은 최대 1000건으로 잘라서 읽는 페이징 쿼리다 -> 컬렉션이 들어간 plan은 여기에 걸 수 없으므로
+     id를 먼저 1000건 찾고 id in 쿼리에 plan을 건다 (findAllByIds)
+    */
+    public List<Order> findAllByString(OrderSearch orderSearch, OrderFetchPlan fetchPlan) {
+        if (fetchPlan.isCollection()) {
+            return findAllByIds(searchByString("select o.id", orderSearch, Long.class).getResultList(), fetchPlan);
+        }
+        return fetchPlan.applyTo(em, searchByString("select o", orderSearch, Order.class)).getResultList();
+    }
+
+    private <T> TypedQuery<T> searchByString(String select, OrderSearch orderSearch, Class<T> resultType) {
 
         /*
         return em.createQuery("select o from order o join o.member m" +
@@ -41,7 +160,7 @@ public class OrderRepository {
                 .getResultList();
         */
         // 동적으로 쿼리를 생성하려면 어떻게 해야 할까?
-        String jpql = "select o From Order o join o.member m";
+        String jpql = select + " From Order o join o.member m";
         boolean isFirstCondition = true;
         // 주문 상태 검색
         if(orderSearch.getOrderStatus() != null) {
@@ -64,7 +183,9 @@ public class OrderRepository {
             jpql += " m.name like :name";
         }
 
-        TypedQuery<Order> query = em.createQuery(jpql, Order.class)
+        // 조회 결과는 dto로 바꿔서 내보내기만 한다 -> 읽기 전용으로 읽어서 스냅샷(변경 감지용 복사본)을 만들지 않는다
+        TypedQuery<T> query = em.createQuery(jpql, resultType)
+                .setHint(QueryHints.HINT_READONLY, true)
                 .setMaxResults(1000);
 
         if(orderSearch.getOrderStatus() != null) {
@@ -74,7 +195,7 @@ public class OrderRepository {
             query = query.setParameter("name", orderSearch.getMemberName());
         }
 
-        return query.getResultList();
+        return query;
     }
 
     /*
@@ -82,15 +203,27 @@ public class OrderRepository {
      사용하기 위해서 build.gradle 수정
     */
     public List<Order> findAll(OrderSearch orderSearch) {
-        JPAQueryFactory query = new JPAQueryFactory(em);
         QOrder order = QOrder.order;
         QMember member = QMember.member;
 
-        return query
+        // 회원명 검색은 이름 색인에서 후보 회원 id를 먼저 찾는다
+        Set<Long> memberIds = findMemberIds(orderSearch.getMemberName());
+
+        JPAQuery<Order> query = queryFactory
                 .select(order)
                 .from(order)
-                .join(order.member, member)
-                .where(statusEq(orderSearch.getOrderStatus()), nameLike(orderSearch.getMemberName()))
+                .join(order.member, member);
+        // 배송상태 조건이 있을 때만 delivery를 조인한다
+        if (orderSearch.getDeliveryStatus() != null) {
+            query.join(order.delivery, QDelivery.delivery);
+        }
+
+        return query
+                .where(statusEq(orderSearch.getOrderStatus()), nameContains(orderSearch.getMemberName()), memberIdIn(memberIds),
+                        totalPriceGoe(orderSearch.getMinTotalPrice()), totalPriceLoe(orderSearch.getMaxTotalPrice()),
+                        orderDateGoe(orderSearch.getOrderDateFrom()), orderDateLoe(orderSearch.getOrderDateTo()),
+                        deliveryStatusEq(orderSearch.getDeliveryStatus()), itemNameContains(orderSearch.getItemName()))
+                .orderBy(orderSpecifiers(orderSearch.getSort()))
                 .limit(1000)
                 .fetch();
     }
@@ -103,12 +236,125 @@ public class OrderRepository {
         return QOrder.order.status.eq(statusCond);
     }
 
-    /* where 동적 쿼리 생성 위해 만든 함수 */
-    private BooleanExpression nameLike(String memberName) {
+    /*
+     where 동적 쿼리 생성 위해 만든 함수
+     회원명의 일부로 검색한다 (like '%name%'), 검색어의 %, _ 는 그대로 문자로 취급된다
+    */
+    private BooleanExpression nameContains(String memberName) {
         if(!StringUtils.hasText(memberName)) {
             return null;
         }
-        return QMember.member.name.like(memberName);
+        return QMember.member.name.contains(memberName);
+    }
+
+    /*
+     이름 색인(MemberNameIndex)으로 찾은 후보 회원 id 조건
+     member 테이블 전체에 like를 거는 대신 후보 회원의 주문만 보고 like로 최종 확인한다
+     m.id가 아니라 o.member.id로 걸어야 orders.member_id 컬럼 조건이 되어 idx_orders_member_id_order_date를 탄다
+    */
+    private BooleanExpression memberIdIn(Set<Long> memberIds) {
+        if(memberIds == null) {
+            return null;
+        }
+        return QOrder.order.member.id.in(memberIds);
+    }
+
+    /*
+     회원명 조건이 없거나 색인이 완전하지 않거나 후보가 너무 많으면 null -> id 조건 없이 like만 쓴다
+     후보가 없을 때도 null, 색인에 없는 회원(엔티티를 거치지 않고 바뀐 이름)이 있을 수 있으므로 결과가 없다고 단정하지 않는다
+    */
+    private Set<Long> findMemberIds(String memberName) {
+        if(!StringUtils.hasText(memberName)) {
+            return null;
+        }
+        // 색인이 완전하지 않으면 색인에 없는 회원의 주문이 빠지므로 id 조건을 걸지 않는다
+        if (!memberNameIndex.isComplete()) {
+            return null;
+        }
+        Set<Long> memberIds = memberNameIndex.findIds(memberName);
+        return memberIds.isEmpty() || memberIds.size() > MemberNameIndex.MAX_ID_PREDICATE ? null : memberIds;
+    }
+
+    /*
+     주문 총액 조건, orders.total_price 컬럼에 바로 거는 조건이라
+     주문을 다 읽어와서 orderItems를 더해보는 대신 db에서 인덱스(idx_orders_total_price)를 타고 걸러진다
+    */
+    private BooleanExpression totalPriceGoe(Integer minTotalPrice) {
+        if(minTotalPrice == null) {
+            return null;
+        }
+        return QOrder.order.totalPrice.goe(minTotalPrice);
+    }
+
+    private BooleanExpression totalPriceLoe(Integer maxTotalPrice) {
+        if(maxTotalPrice == null) {
+            return null;
+        }
+        return QOrder.order.totalPrice.loe(maxTotalPrice);
+    }
+
+    /*
+     주문일 범위 조건, 양 끝 날짜를 포함한다 (to는 다음날 0시 미만)
+     상태나 회원 조건과 같이 오면 (status, order_date), (member_id, order_date) 인덱스로,
+     혼자 오면 (order_date, order_id) 인덱스로 범위만 읽는다
+    */
+    private BooleanExpression orderDateGoe(LocalDate from) {
+        if(from == null) {
+            return null;
+        }
+        return QOrder.order.orderDate.goe(from.atStartOfDay());
+    }
+
+    private BooleanExpression orderDateLoe(LocalDate to) {
+        if(to == null) {
+            return null;
+        }
+        return QOrder.order.orderDate.lt(to.plusDays(1).atStartOfDay());
+    }
+
+    // delivery가 조인되어 있어야 한다 (findAll 참고)
+    private BooleanExpression deliveryStatusEq(DeliveryStatus deliveryStatus) {
+        if(deliveryStatus == null) {
+            return null;
+        }
+        return QDelivery.delivery.status.eq(deliveryStatus);
+    }
+
+    /*
+     주문 상품 중 하나라도 상품명에 검색어가 들어있는 주문
+     이름이 맞는 상품 id -> order_item(item_id) 인덱스로 주문 상품 -> 주문 id 순서로 찾는다
+     주문 상품을 조인하지 않으므로 주문이 상품 수만큼 중복되지 않는다
+    */
+    private BooleanExpression itemNameContains(String itemName) {
+        if(!StringUtils.hasText(itemName)) {
+            return null;
+        }
+        QOrderItem orderItem = QOrderItem.orderItem;
+        QItem item = QItem.item;
+        return QOrder.order.id.in(
+                JPAExpressions
+                        .select(orderItem.order.id)
+                        .from(orderItem)
+                        .where(orderItem.item.id.in(
+                                JPAExpressions
+                                        .select(item.id)
+                                        .from(item)
+                                        .where(item.name.contains(itemName)))));
+    }
+
+    /* 정렬 조건이 없으면 빈 배열 -> order by 없이 기존과 같은 쿼리가 나간다 */
+    private OrderSpecifier<?>[] orderSpecifiers(OrderSort sort) {
+        if(sort == null) {
+            return new OrderSpecifier<?>[0];
+        }
+        switch (sort) {
+            case TOTAL_PRICE_ASC:
+                return new OrderSpecifier<?>[]{QOrder.order.totalPrice.asc(), QOrder.order.id.asc()};
+            case TOTAL_PRICE_DESC:
+                return new OrderSpecifier<?>[]{QOrder.order.totalPrice.desc(), QOrder.order.id.desc()};
+            default:
+                return new OrderSpecifier<?>[0];
+        }
     }
 
     /* 아래 코드는 실무에서는 잘 안쓴다고 한다
@@ -202,9 +448,62 @@ public class OrderRepository {
                         " join fetch o.delivery d" +
                         " join fetch o.orderItems oi" +
                         " join fetch oi.item i", Order.class)
+                .setHint(QueryHints.HINT_READONLY, true) // findAllByString 참고
+                .getResultList();
+    }
+
+    /*
+     version 3, 3-page의 fields 파라미터 (OrderApiController의 OrderFields)
+     fetchPaths에 있는 연관 엔티티만 entity graph로 join 해서 읽고, 나머지는 join 하지 않는다 (트랜잭션 안에서 건드리지 않으면 쿼리도 없다)
+     경로는 "member", "delivery", "orderItems", "orderItems.item" 처럼 쓴다
+     컬렉션이 들어가면 findAllWithItem과 같이 distinct가 필요하고 페이징은 할 수 없다
+    */
+    public List<Order> findAll(List<String> fetchPaths) {
+        boolean collection = fetchesCollection(fetchPaths);
+        return em.createQuery(collection ? "select distinct o from Order o" : "select o from Order o", Order.class)
+                .setHint(QueryHints.HINT_READONLY, true) // findAllByString 참고
+                .setHint(FETCH_GRAPH, fetchGraph(fetchPaths))
+                .getResultList();
+    }
+
+    public List<Order> findAll(List<String> fetchPaths, int offset, int limit) {
+        if (fetchesCollection(fetchPaths)) {
+            throw new IllegalStateException("컬렉션을 fetch 하면서 페이징할 수 없습니다: " + fetchPaths);
+        }
+        return em.createQuery("select o from Order o", Order.class)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .setHint(FETCH_GRAPH, fetchGraph(fetchPaths))
+                .setFirstResult(offset)
+                .setMaxResults(limit)
                 .getResultList();
     }
 
+    private EntityGraph<Order> fetchGraph(List<String> fetchPaths) {
+        EntityGraph<Order> graph = em.createEntityGraph(Order.class);
+        Map<String, Subgraph<?>> subgraphs = new HashMap<>();
+        for (String path : fetchPaths) {
+            int dot = path.indexOf('.');
+            if (dot > 0) {
+                subgraphs.computeIfAbsent(path.substring(0, dot), name -> graph.addSubgraph(name))
+                        .addAttributeNodes(path.substring(dot + 1));
+            }
+        }
+        // "orderItems.item"이 있으면 orderItems는 이미 subgraph로 들어가 있다
+        for (String path : fetchPaths) {
+            if (path.indexOf('.') < 0 && !subgraphs.containsKey(path)) {
+                graph.addAttributeNodes(path);
+            }
+        }
+        return graph;
+    }
+
+    private boolean fetchesCollection(List<String> fetchPaths) {
+        EntityType<Order> entity = em.getMetamodel().entity(Order.class);
+        return fetchPaths.stream()
+                .map(path -> path.indexOf('.') > 0 ? path.substring(0, path.indexOf('.')) : path)
+                .anyMatch(attribute -> entity.getAttribute(attribute).isCollection());
+    }
+
     /*
      version 3-page 전용 페이징이 가능한 메서드
      추가된 부분 : default_batch_fetch_size: 100
@@ -219,11 +518,53 @@ public class OrderRepository {
                 "select o from Order o" +
                         " join fetch o.member m" +
                         " join fetch o.delivery d", Order.class)
+                .setHint(QueryHints.HINT_READONLY, true) // findAllByString 참고
                 .setFirstResult(offset)
                 .setMaxResults(limit)
                 .getResultList();
     }
 
+    /*
+     version 3-cursor, keyset 페이징
+     setFirstResult(offset)는 db가 offset 만큼의 row를 읽고 버리기 때문에 페이지가 뒤로 갈수록 느려진다
+     대신 마지막으로 본 주문 다음부터 인덱스를 타고 limit 만큼만 읽는다 -> 몇 번째 페이지든 비용이 같다
+     ID : order_id (pk 인덱스)
+     ORDER_DATE : (order_date, order_id) 인덱스 (idx_orders_order_date_id), 같은 시각의 주문은 order_id로 구분한다
+       (order_date, order_id) > (?, ?) 를 or로 풀면 옵티마이저가 인덱스 범위를 잡지 못하고 전체를 훑을 수 있다
+       결과는 같지만 범위 시작점이 되는 o.orderDate >= ? 조건을 따로 붙여서 인덱스를 그 위치부터 읽게 한다
+
+     to many 관계인 orderItems는 서비스가 페이지의 주문 id로 한번 더 읽어서 채운다 (OrderService.withItems)
+    */
+    public List<Order> findAllWithMemberDelivery(OrderCursor cursor, int limit) {
+        String jpql = "select o from Order o" +
+                " join fetch o.member m" +
+                " join fetch o.delivery d";
+
+        if (cursor.getKey() == OrderCursor.Key.ORDER_DATE) {
+            if (!cursor.isFirst()) {
+                jpql += " where o.orderDate >= :lastOrderDate" +
+                        " and (o.orderDate > :lastOrderDate" +
+                        " or (o.orderDate = :lastOrderDate and o.id > :lastOrderId))";
+            }
+            jpql += " order by o.orderDate, o.id";
+        } else {
+            if (!cursor.isFirst()) {
+                jpql += " where o.id > :lastOrderId";
+            }
+            jpql += " order by o.id";
+        }
+
+        TypedQuery<Order> query = em.createQuery(jpql, Order.class)
+                .setMaxResults(limit);
+        if (!cursor.isFirst()) {
+            query.setParameter("lastOrderId", cursor.getLastOrderId());
+            if (cursor.getKey() == OrderCursor.Key.ORDER_DATE) {
+                query.setParameter("lastOrderDate", cursor.getLastOrderDate());
+            }
+        }
+        return query.getResultList();
+    }
+
 
 }
 
@@ -1,8 +1,12 @@
 package jpabook.jpashop.repository;
 
+import jpabook.jpashop.domain.DeliveryStatus;
 import jpabook.jpashop.domain.OrderStatus;
 import lombok.Getter;
 import lombok.Setter;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
 
 @Getter
 @Setter
@@ -11,4 +15,18 @@ public class OrderSearch {
     private String memberName;
     private OrderStatus orderStatus; // 주문의 상태, ORDER 와 CANCEL 이 존재한다
 
+    // 주문 총액 범위 (orders.total_price 컬럼으로 db에서 필터링)
+    private Integer minTotalPrice;
+    private Integer maxTotalPrice;
+    private OrderSort sort;
+
+    // 주문일 범위, 양 끝 날짜 포함 (yyyy-MM-dd)
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate orderDateFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate orderDateTo;
+
+    private DeliveryStatus deliveryStatus; // 배송 상태, READY 와 COMP 가 존재한다
+    private String itemName; // 주문 상품 중 하나라도 이름에 포함되면 검색된다
+
 }
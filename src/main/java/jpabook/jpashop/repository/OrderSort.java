@@ -0,0 +1,6 @@
+package jpabook.jpashop.repository;
+
+// 주문 검색 정렬 조건, null이면 기존처럼 정렬 없이 조회한다
+public enum OrderSort {
+    TOTAL_PRICE_ASC, TOTAL_PRICE_DESC
+}
@@ -0,0 +1,151 @@
+package jpabook.jpashop.repository.order.query;
+
+import jpabook.jpashop.domain.Address;
+import jpabook.jpashop.domain.OrderStatus;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/*
+ v6 결과를 컬럼 단위로 바꾼 모양 (api v6-columnar)
+ v6는 주문 상품 한 줄마다 필드 이름과 회원명, 주소(객체), 주문일 등 주문 정보가 반복된다
+ 1) 회원명, 주소, 상품명은 사전(중복 없는 값 목록)에 한번씩만 넣고 각 줄에는 사전의 index만 쓴다
+ 2) 주문 정보는 주문마다 한번(orders), 주문 상품은 몇 번째 주문인지(items.order)만 가리킨다
+ 3) 필드 이름은 컬럼마다 한번만 나온다
+
+ v6의 i번째 줄 = items의 i번째 값 + orders의 items.order[i]번째 값
+ ex) 회원명 = names[orders.name[items.order[i]]]
+*/
+@Getter
+public class OrderFlatColumns {
+
+    private final List<String> names;
+    private final List<Address> addresses;
+    private final List<String> itemNames;
+    private final Orders orders;
+    private final Items items;
+
+    private OrderFlatColumns(Builder builder) {
+        this.names = builder.names.values;
+        this.addresses = builder.addresses.values;
+        this.itemNames = builder.itemNames.values;
+        this.orders = new Orders(builder);
+        this.items = new Items(builder);
+    }
+
+    @Getter
+    public static class Orders {
+        private final List<LocalDateTime> orderDate;
+        private final List<OrderStatus> orderStatus;
+        private final int[] name;    // names의 index
+        private final int[] address; // addresses의 index
+        private final int[] totalPrice;
+
+        private Orders(Builder builder) {
+            this.orderDate = builder.orderDate;
+            this.orderStatus = builder.orderStatus;
+            this.name = builder.name.toArray();
+            this.address = builder.address.toArray();
+            this.totalPrice = builder.totalPrice.toArray();
+        }
+    }
+
+    @Getter
+    public static class Items {
+        private final int[] order;    // orders의 index
+        private final int[] itemName; // itemNames의 index
+        private final int[] orderPrice;
+        private final int[] count;
+
+        private Items(Builder builder) {
+            this.order = builder.order.toArray();
+            this.itemName = builder.itemName.toArray();
+            this.orderPrice = builder.orderPrice.toArray();
+            this.count = builder.count.toArray();
+        }
+    }
+
+    /*
+     flat row를 order_id 순으로 받아서 컬럼을 채운다 (OrderQueryRepository.streamAllByDto_flat)
+     같은 주문의 row가 연속으로 들어와야 주문 정보가 한번만 들어간다
+    */
+    public static class Builder implements Consumer<OrderFlatDto> {
+
+        private final Dictionary<String> names = new Dictionary<>();
+        private final Dictionary<Address> addresses = new Dictionary<>();
+        private final Dictionary<String> itemNames = new Dictionary<>();
+
+        private final List<LocalDateTime> orderDate = new ArrayList<>();
+        private final List<OrderStatus> orderStatus = new ArrayList<>();
+        private final IntColumn name = new IntColumn();
+        private final IntColumn address = new IntColumn();
+        private final IntColumn totalPrice = new IntColumn();
+
+        private final IntColumn order = new IntColumn();
+        private final IntColumn itemName = new IntColumn();
+        private final IntColumn orderPrice = new IntColumn();
+        private final IntColumn count = new IntColumn();
+
+        private Long lastOrderId;
+
+        @Override
+        public void accept(OrderFlatDto row) {
+            if (!row.getOrderId().equals(lastOrderId)) {
+                lastOrderId = row.getOrderId();
+                orderDate.add(row.getOrderDate());
+                orderStatus.add(row.getOrderStatus());
+                name.add(names.indexOf(row.getName(), row.getName()));
+                Address a = row.getAddress();
+                address.add(a == null ? -1 : addresses.indexOf(Arrays.asList(a.getCity(), a.getStreet(), a.getZipcode()), a));
+                totalPrice.add(row.getTotalPrice());
+            }
+            order.add(orderDate.size() - 1);
+            itemName.add(itemNames.indexOf(row.getItemName(), row.getItemName()));
+            orderPrice.add(row.getOrderPrice());
+            count.add(row.getCount());
+        }
+
+        public OrderFlatColumns build() {
+            return new OrderFlatColumns(this);
+        }
+    }
+
+    // 처음 나온 순서대로 번호를 붙인다, Address는 equals가 없으므로 값 목록을 key로 쓴다
+    private static class Dictionary<T> {
+        private final Map<Object, Integer> index = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        int indexOf(Object key, T value) {
+            Integer i = index.get(key);
+            if (i == null) {
+                i = values.size();
+                index.put(key, i);
+                values.add(value);
+            }
+            return i;
+        }
+    }
+
+    // int 컬럼을 Integer 객체 없이 모은다
+    private static class IntColumn {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
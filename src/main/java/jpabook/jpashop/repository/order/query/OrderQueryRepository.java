@@ -1,19 +1,91 @@
 package jpabook.jpashop.repository.order.query;
 
-import lombok.RequiredArgsConstructor;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Repository
-@RequiredArgsConstructor
 public class OrderQueryRepository {
 
+    private static final String FLAT_JPQL =
+            "select new jpabook.jpashop.repository.order.query.OrderFlatDto(o.id, m.name, o.orderDate, o.status, d.address, o.totalPrice, i.name, oi.orderPrice, oi.count)" +
+                    " from Order o" +
+                    " join o.member m" +
+                    " join o.delivery d" +
+                    " join o.orderItems oi" +
+                    " join oi.item i";
+    private static final int STREAM_FETCH_SIZE = 1000;
+
     private final EntityManager em;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int inChunkSize;
+    private final ExecutorService executor; // parallelism이 1이면 null
+
+    /*
+     parallelism 스레드는 각자 커넥션을 하나씩 잡으므로 요청이 몰리면 커넥션 풀의 parallelism 개를 chunk 조회가 계속 차지한다
+     풀의 절반을 넘게 주면 다른 요청(주문, 취소 등)이 커넥션을 기다리다 타임아웃 나므로 시작할 때 막는다
+     maximumPoolSize의 기본값 10은 hikari의 기본값
+    */
+    public OrderQueryRepository(EntityManager em,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${jpashop.order-query.in-chunk-size:1000}") int inChunkSize,
+                                @Value("${jpashop.order-query.parallelism:1}") int parallelism,
+                                @Value("${spring.datasource.hikari.maximum-pool-size:10}") int maximumPoolSize) {
+        if (parallelism > 1 && parallelism > maximumPoolSize / 2) {
+            throw new IllegalArgumentException("jpashop.order-query.parallelism(" + parallelism
+                    + ")은 커넥션 풀 크기(" + maximumPoolSize + ")의 절반을 넘을 수 없습니다.");
+        }
+        this.em = em;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.inChunkSize = inChunkSize;
+        this.executor = parallelism > 1 ? newExecutor(parallelism) : null;
+    }
+
+    /*
+     스레드 수와 대기열 크기를 모두 제한한다
+     대기열이 가득 차면 요청 스레드가 직접 실행해서 (CallerRunsPolicy) 조회가 몰려도 작업이 무한정 쌓이지 않는다
+    */
+    private static ExecutorService newExecutor(int parallelism) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "order-query-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
 
+    @Transactional(readOnly = true)
     public List<OrderQueryDto> findOrderQueryDtos() {
         List<OrderQueryDto> result = findOrders(); // query 1번에 order 2건
         result.forEach(o -> { // 각각의 order에 대해 query 1번씩
@@ -36,10 +108,11 @@ public class OrderQueryRepository {
 
     private List<OrderQueryDto> findOrders() {
         return em.createQuery(
-                "select new jpabook.jpashop.repository.order.query.OrderQueryDto(o.id, m.name, o.orderDate, o.status, d.address)" +
+                "select new jpabook.jpashop.repository.order.query.OrderQueryDto(o.id, m.name, o.orderDate, o.status, d.address, o.totalPrice)" +
                         " from Order o" +
                         " join o.member m" +
-                        " join o.delivery d", OrderQueryDto.class)
+                        " join o.delivery d" +
+                        " order by o.id", OrderQueryDto.class)
                 .getResultList();
     }
 
@@ -49,31 +122,95 @@ public class OrderQueryRepository {
     */
     public List<OrderQueryDto> findAllByDto_optimization() {
         // 쿼리 1번
-        List<OrderQueryDto> result = findOrders();
+        // 병렬 조회일 때 요청 스레드가 커넥션을 잡은 채로 chunk를 기다리지 않도록 메서드 전체가 아니라 쿼리마다 트랜잭션을 연다
+        List<OrderQueryDto> result = readOnlyTransaction.execute(status -> findOrders());
         /* v4의 문제점은 여기서 loop 문을 돌아서 쿼리의 수가 많아진다는 점이 있다 */
 
-        List<Long> orderIds = result.stream()
-                .map(o -> o.getOrderId())
-                .collect(Collectors.toList()); // userA의 주문번호와 userB의 주문번호가 들어가 있을것이다
+        /*
+         findOrders는 order_id 순이므로 id 배열도 정렬되어 있다
+         Map<Long, List>로 groupingBy 하는 대신 이 배열에서 binarySearch로 주문 위치를 찾는다 (Long boxing, 해시맵 없음)
+        */
+        long[] orderIds = new long[result.size()];
+        for (int i = 0; i < orderIds.length; i++) {
+            OrderQueryDto order = result.get(i);
+            orderIds[i] = order.getOrderId();
+            order.setOrderItems(new ArrayList<>());
+        }
 
         /*
-         in query를 통해서 나머지 쿼리 부분을 한번에 처리했다 총 쿼리 수 1번
-         대신 주문 아이템 별로 구분은 안된 상태로 userA와 userB의 orderItem이 들어 있을 것이다
+         in query를 통해서 나머지 쿼리 부분을 처리했다
+         주문 id가 수만 개가 되면 파라미터 하나에 다 넣을 수 없으므로 inChunkSize 개씩 잘라서 쿼리한다
+         (in_clause_parameter_padding 옵션으로 마지막 chunk도 2의 거듭제곱 크기로 맞춰져서 쿼리 플랜 수가 늘지 않는다)
          */
-        List<OrderItemQueryDto> orderItems = em.createQuery(
+        for (List<OrderItemQueryDto> orderItems : findOrderItemsInChunks(orderIds)) {
+            // 기존에 구해 놓은 orderId로 각각의 주문 위치를 찾아 orderItem들을 매핑한다
+            for (OrderItemQueryDto orderItem : orderItems) {
+                int index = Arrays.binarySearch(orderIds, orderItem.getOrderId());
+                result.get(index).getOrderItems().add(orderItem);
+            }
+        }
+        return result;
+    }
+
+    /*
+     parallelism이 1이면 요청 스레드에서 chunk를 순서대로 조회한다
+     그보다 크면 chunk마다 별도의 읽기 전용 트랜잭션(= 별도 커넥션)으로 executor에서 동시에 조회한다
+     executor 스레드가 parallelism 개뿐이라 요청이 몇개든 chunk 조회가 잡는 커넥션은 parallelism 개를 넘지 않는다
+     (대기열이 넘쳐서 요청 스레드가 직접 실행하는 chunk는 그 요청의 커넥션 하나로 본다)
+     결과 병합은 요청 스레드에서만 하므로 OrderQueryDto를 여러 스레드가 건드리지 않는다
+    */
+    private List<List<OrderItemQueryDto>> findOrderItemsInChunks(long[] orderIds) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < orderIds.length; from += inChunkSize) {
+            int to = Math.min(orderIds.length, from + inChunkSize);
+            List<Long> chunk = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                chunk.add(orderIds[i]);
+            }
+            chunks.add(chunk);
+        }
+
+        List<List<OrderItemQueryDto>> result = new ArrayList<>(chunks.size());
+        if (executor == null || chunks.size() == 1) {
+            readOnlyTransaction.execute(status -> {
+                for (List<Long> chunk : chunks) {
+                    result.add(findOrderItemsIn(chunk));
+                }
+                return null;
+            });
+            return result;
+        }
+
+        List<Future<List<OrderItemQueryDto>>> futures = new ArrayList<>(chunks.size());
+        for (List<Long> chunk : chunks) {
+            futures.add(executor.submit(() -> readOnlyTransaction.execute(status -> findOrderItemsIn(chunk))));
+        }
+        try {
+            for (Future<List<OrderItemQueryDto>> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("주문 상품 조회가 중단되었습니다.", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return result;
+    }
+
+    private List<OrderItemQueryDto> findOrderItemsIn(List<Long> orderIds) {
+        return em.createQuery(
                 "select new jpabook.jpashop.repository.order.query.OrderItemQueryDto(oi.order.id, i.name, oi.orderPrice, oi.count)" +
                         " from OrderItem oi" +
                         " join oi.item i" +
                         " where oi.order.id in :orderIds", OrderItemQueryDto.class)
                 .setParameter("orderIds", orderIds)
                 .getResultList();
-
-        // 기존에 구해 놓은 orderId를 키값으로 사용하여 각각의 user에 해당하는 orderItem들을 매핑한다
-        Map<Long, List<OrderItemQueryDto>> orderItemMap = orderItems.stream()
-                .collect(Collectors.groupingBy(orderItemQueryDto -> orderItemQueryDto.getOrderId()));
-
-        result.forEach(o -> o.setOrderItems(orderItemMap.get(o.getOrderId())));
-        return result;
     }
 
     /*
@@ -82,14 +219,103 @@ public class OrderQueryRepository {
      하지만 일대 다 과정이 포함된 상태에서 조인을 시켜버리면 페이징 불가 + 중복이 불가피하다
 
     */
+    @Transactional(readOnly = true)
     public List<OrderFlatDto> findAllByDto_flat() {
-        return em.createQuery(
-                "select new jpabook.jpashop.repository.order.query.OrderFlatDto(o.id, m.name, o.orderDate, o.status, d.address, i.name, oi.orderPrice, oi.count)" +
-                        " from Order o" +
-                        " join o.member m" +
-                        " join o.delivery d" +
-                        " join o.orderItems oi" +
-                        " join oi.item i", OrderFlatDto.class)
+        return em.createQuery(FLAT_JPQL, OrderFlatDto.class)
                 .getResultList();
     }
+
+    /*
+     version 6 streaming
+     findAllByDto_flat은 모든 row를 List에 담은 다음에 jackson이 쓰기 시작하므로 row 수만큼 힙을 차지한다
+     여기서는 forward only 커서(ScrollableResults)로 fetchSize 만큼씩 db에서 받아오면서 한 줄씩 consumer에 넘긴다
+     -> 결과가 몇 건이든 메모리에는 fetchSize 만큼의 row만 올라와 있다
+
+     dto 조회라 영속성 컨텍스트에 엔티티가 쌓이지는 않지만, 긴 스트림 동안 혹시 로딩된 것이 있으면 주기적으로 비워준다
+     커서가 열려 있는 동안 커넥션을 붙잡고 있어야 하므로 읽기 전용 트랜잭션 안에서 실행한다
+    */
+    @Transactional(readOnly = true)
+    public void streamAllByDto_flat(Consumer<OrderFlatDto> consumer) {
+        Query<OrderFlatDto> query = em.unwrap(Session.class)
+                .createQuery(FLAT_JPQL + " order by o.id", OrderFlatDto.class)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .setReadOnly(true);
+
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            int count = 0;
+            while (results.next()) {
+                consumer.accept((OrderFlatDto) results.get(0));
+                if (++count % STREAM_FETCH_SIZE == 0) {
+                    em.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /*
+     version 7
+     v5는 쿼리가 2번, v6는 쿼리 1번이지만 주문 상품 수만큼 중복된 flat row를 클라이언트가 다시 묶어야 한다
+     v6 쿼리를 order_id 순으로 읽으면 같은 주문의 row는 항상 연속해서 나오므로
+     order_id가 바뀌는 순간 직전 주문을 OrderQueryDto + OrderItemQueryDto로 완성해서 넘긴다
+     groupingBy처럼 전체 결과를 map으로 만들지 않기 때문에 한번에 메모리에 있는 것은 주문 하나 분량이다
+    */
+    @Transactional(readOnly = true)
+    public void streamAllByDto_grouped(Consumer<OrderQueryDto> consumer) {
+        OrderGrouper grouper = new OrderGrouper(consumer);
+        streamAllByDto_flat(grouper);
+        grouper.finish();
+    }
+
+    /*
+     version 6 columnar
+     v6 streaming과 같은 쿼리를 order_id 순으로 읽으면서 바로 컬럼에 채운다 -> OrderFlatDto 리스트를 만들지 않는다
+    */
+    @Transactional(readOnly = true)
+    public OrderFlatColumns findAllByDto_columnar() {
+        OrderFlatColumns.Builder builder = new OrderFlatColumns.Builder();
+        streamAllByDto_flat(builder);
+        return builder.build();
+    }
+
+    // 쿼리 1번으로 v5와 같은 모양의 결과를 만든다
+    @Transactional(readOnly = true)
+    public List<OrderQueryDto> findAllByDto_grouped() {
+        List<OrderQueryDto> result = new ArrayList<>();
+        streamAllByDto_grouped(result::add);
+        return result;
+    }
+
+    /* order_id 순으로 정렬된 flat row를 주문 단위로 접는다 */
+    private static class OrderGrouper implements Consumer<OrderFlatDto> {
+
+        private final Consumer<OrderQueryDto> downstream;
+        private OrderQueryDto current;
+
+        OrderGrouper(Consumer<OrderQueryDto> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void accept(OrderFlatDto row) {
+            if (current == null || !current.getOrderId().equals(row.getOrderId())) {
+                finish();
+                current = new OrderQueryDto(row.getOrderId(), row.getName(), row.getOrderDate(),
+                        row.getOrderStatus(), row.getAddress(), row.getTotalPrice());
+                current.setOrderItems(new ArrayList<>());
+            }
+            current.getOrderItems().add(
+                    new OrderItemQueryDto(row.getOrderId(), row.getItemName(), row.getOrderPrice(), row.getCount()));
+        }
+
+        // 마지막 주문은 다음 row가 없으므로 따로 넘겨줘야 한다
+        void finish() {
+            if (current != null) {
+                downstream.accept(current);
+                current = null;
+            }
+        }
+    }
 }
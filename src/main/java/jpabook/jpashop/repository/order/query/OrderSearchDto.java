@@ -0,0 +1,25 @@
+package jpabook.jpashop.repository.order.query;
+
+import jpabook.jpashop.domain.OrderStatus;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// 주문 검색 결과 dto, 엔티티를 거치지 않고 검색 쿼리에서 바로 만든다 (OrderSearchQueryRepository)
+@Data
+public class OrderSearchDto {
+
+    private Long orderId;
+    private String name;
+    private LocalDateTime orderDate;
+    private OrderStatus orderStatus;
+    private int totalPrice;
+
+    public OrderSearchDto(Long orderId, String name, LocalDateTime orderDate, OrderStatus orderStatus, int totalPrice) {
+        this.orderId = orderId;
+        this.name = name;
+        this.orderDate = orderDate;
+        this.orderStatus = orderStatus;
+        this.totalPrice = totalPrice;
+    }
+}
@@ -0,0 +1,354 @@
+package jpabook.jpashop.repository.order.query;
+
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPAQuery;
+import jpabook.jpashop.domain.DeliveryStatus;
+import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.domain.QDelivery;
+import jpabook.jpashop.domain.QMember;
+import jpabook.jpashop.domain.QOrder;
+import jpabook.jpashop.domain.QOrderItem;
+import jpabook.jpashop.domain.item.QItem;
+import jpabook.jpashop.repository.MemberNameIndex;
+import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderSort;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ 주문 검색 쿼리
+ OrderRepository.findAllByString은 호출마다 jpql 문자열을 이어 붙이고, findAll은 호출마다 querydsl이 jpql을 다시 만든다
+ 검색 조건 조합(조건마다 있음/없음 x 정렬)은 정해진 수뿐이므로
+ 조합마다 jpql을 한번만 만들어서 named query로 등록해 둔다 (등록 시점에 한번 파싱)
+ 조건이 9개로 늘어서 조합이 1536가지가 되었으므로 시작할 때 전부 등록하지 않고 처음 쓰이는 조합만 등록한다
+ 검색할 때는 조건 조합으로 이름만 골라서 파라미터를 채운다
+ Order.search : 목록, Order.page : 페이지의 주문 id (정렬 조건이 없으면 최신 주문 순), Order.ids : 건수 세기용 id 목록
+*/
+@Repository
+@RequiredArgsConstructor
+public class OrderSearchQueryRepository {
+
+    private static final int STATUS = 1;
+    private static final int NAME = 1 << 1;
+    private static final int MIN_TOTAL_PRICE = 1 << 2;
+    private static final int MAX_TOTAL_PRICE = 1 << 3;
+    private static final int MEMBER_IDS = 1 << 4; // 회원 이름 색인으로 찾은 후보 회원 id
+    private static final int ORDER_DATE_FROM = 1 << 5;
+    private static final int ORDER_DATE_TO = 1 << 6;
+    private static final int DELIVERY_STATUS = 1 << 7;
+    private static final int ITEM_NAME = 1 << 8;
+    private static final int SORTS = OrderSort.values().length + 1; // 0 : 정렬 없음
+
+    private static final int MAX_RESULTS = 1000;
+
+    private final EntityManager em;
+    private final EntityManagerFactory emf;
+    private final JPAQueryFactory queryFactory;
+    private final MemberNameIndex memberNameIndex;
+
+    // 이미 등록한 named query 이름
+    private final Set<String> registeredQueries = ConcurrentHashMap.newKeySet();
+
+    // 처음 쓰일 때 등록한다, 동시에 두번 등록되어도 같은 쿼리로 덮어쓸 뿐이다
+    private String register(String name, String jpql, Class<?> resultClass) {
+        if (!registeredQueries.contains(name)) {
+            EntityManager registerEm = emf.createEntityManager();
+            try {
+                emf.addNamedQuery(name, registerEm.createQuery(jpql, resultClass));
+            } finally {
+                registerEm.close();
+            }
+            registeredQueries.add(name);
+        }
+        return name;
+    }
+
+    // OrderRepository.findAll과 같은 결과
+    public List<Order> findAll(OrderSearch orderSearch) {
+        Set<Long> memberIds = findMemberIds(orderSearch.getMemberName());
+
+        int mask = mask(orderSearch, memberIds);
+        int sort = sortIndex(orderSearch.getSort());
+        String name = register("Order.search." + mask + "." + sort, jpql("select o", mask) + orderBy(sort, false), Order.class);
+        return bind(em.createNamedQuery(name, Order.class), mask, orderSearch, memberIds)
+                .setMaxResults(MAX_RESULTS)
+                .getResultList();
+    }
+
+    /*
+     페이지 조회, offset 부터 limit 건의 주문 id
+     페이지가 넘어가도 순서가 바뀌지 않도록 정렬 조건이 없으면 최신 주문(id 내림차순) 순으로 읽는다
+     주문은 id로 fetch plan에 맞춰 다시 읽는다 (OrderRepository.findAllByIds) -> 컬렉션을 fetch 하면서도 db에서 페이징된다
+    */
+    public List<Long> findPageIds(OrderSearch orderSearch, int offset, int limit) {
+        Set<Long> memberIds = findMemberIds(orderSearch.getMemberName());
+
+        int mask = mask(orderSearch, memberIds);
+        int sort = sortIndex(orderSearch.getSort());
+        String name = register("Order.page." + mask + "." + sort, jpql("select o.id", mask) + orderBy(sort, true), Long.class);
+        return bind(em.createNamedQuery(name, Long.class), mask, orderSearch, memberIds)
+                .setFirstResult(offset)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /*
+     검색 결과 건수, 최대 limit 건까지만 센다
+     count(o)는 조건에 맞는 주문을 전부 세야 하므로 결과가 많을수록 느려진다
+     id만 limit 건까지 읽고 멈추면 (fetch join, 정렬 없이) 결과가 아무리 많아도 비용이 일정하다
+    */
+    public int countUpTo(OrderSearch orderSearch, int limit) {
+        Set<Long> memberIds = findMemberIds(orderSearch.getMemberName());
+
+        int mask = mask(orderSearch, memberIds);
+        String name = register("Order.ids." + mask, jpql("select o.id", mask), Long.class);
+        return bind(em.createNamedQuery(name, Long.class), mask, orderSearch, memberIds)
+                .setMaxResults(limit)
+                .getResultList()
+                .size();
+    }
+
+    private static <T> TypedQuery<T> bind(TypedQuery<T> query, int mask, OrderSearch orderSearch, Set<Long> memberIds) {
+        if ((mask & STATUS) != 0) {
+            query.setParameter("status", orderSearch.getOrderStatus());
+        }
+        if ((mask & NAME) != 0) {
+            query.setParameter("name", "%" + escapeLike(orderSearch.getMemberName()) + "%");
+        }
+        if ((mask & MEMBER_IDS) != 0) {
+            query.setParameter("memberIds", memberIds);
+        }
+        if ((mask & MIN_TOTAL_PRICE) != 0) {
+            query.setParameter("minTotalPrice", orderSearch.getMinTotalPrice());
+        }
+        if ((mask & MAX_TOTAL_PRICE) != 0) {
+            query.setParameter("maxTotalPrice", orderSearch.getMaxTotalPrice());
+        }
+        if ((mask & ORDER_DATE_FROM) != 0) {
+            query.setParameter("orderDateFrom", orderSearch.getOrderDateFrom().atStartOfDay());
+        }
+        if ((mask & ORDER_DATE_TO) != 0) {
+            query.setParameter("orderDateTo", orderSearch.getOrderDateTo().plusDays(1).atStartOfDay());
+        }
+        if ((mask & DELIVERY_STATUS) != 0) {
+            query.setParameter("deliveryStatus", orderSearch.getDeliveryStatus());
+        }
+        if ((mask & ITEM_NAME) != 0) {
+            query.setParameter("itemName", "%" + escapeLike(orderSearch.getItemName()) + "%");
+        }
+        return query;
+    }
+
+    /*
+     dto 조회
+     엔티티를 영속성 컨텍스트에 올리지 않고 필요한 컬럼만 바로 OrderSearchDto로 만든다 (Projections.constructor)
+     querydsl이 만드는 jpql은 조건 조합이 같으면 문자열도 같으므로 hibernate 쿼리 플랜 캐시에서 재사용된다
+    */
+    @Transactional(readOnly = true) // api가 서비스를 거치지 않고 바로 부른다
+    public List<OrderSearchDto> findAllDto(OrderSearch orderSearch) {
+        QOrder order = QOrder.order;
+        QMember member = QMember.member;
+
+        Set<Long> memberIds = findMemberIds(orderSearch.getMemberName());
+
+        JPAQuery<OrderSearchDto> query = queryFactory
+                .select(Projections.constructor(OrderSearchDto.class,
+                        order.id, member.name, order.orderDate, order.status, order.totalPrice))
+                .from(order)
+                .join(order.member, member);
+        if (orderSearch.getDeliveryStatus() != null) {
+            query.join(order.delivery, QDelivery.delivery);
+        }
+
+        return query
+                .where(statusEq(orderSearch.getOrderStatus()), nameContains(orderSearch.getMemberName()), memberIdIn(memberIds),
+                        totalPriceGoe(orderSearch.getMinTotalPrice()), totalPriceLoe(orderSearch.getMaxTotalPrice()),
+                        orderDateGoe(orderSearch.getOrderDateFrom()), orderDateLoe(orderSearch.getOrderDateTo()),
+                        deliveryStatusEq(orderSearch.getDeliveryStatus()), itemNameContains(orderSearch.getItemName()))
+                .orderBy(orderSpecifiers(orderSearch.getSort()))
+                .limit(MAX_RESULTS)
+                .fetch();
+    }
+
+    // 회원명 조건이 없거나 후보가 없거나 너무 많으면 null -> id 조건 없이 like만 쓴다 (OrderRepository와 같은 기준)
+    private Set<Long> findMemberIds(String memberName) {
+        if (!StringUtils.hasText(memberName)) {
+            return null;
+        }
+        // 색인이 완전하지 않으면 색인에 없는 회원의 주문이 빠지므로 id 조건을 걸지 않는다
+        if (!memberNameIndex.isComplete()) {
+            return null;
+        }
+        Set<Long> memberIds = memberNameIndex.findIds(memberName);
+        return memberIds.isEmpty() || memberIds.size() > MemberNameIndex.MAX_ID_PREDICATE ? null : memberIds;
+    }
+
+    private static int mask(OrderSearch orderSearch, Set<Long> memberIds) {
+        int mask = 0;
+        if (orderSearch.getOrderStatus() != null) {
+            mask |= STATUS;
+        }
+        if (StringUtils.hasText(orderSearch.getMemberName())) {
+            mask |= NAME;
+        }
+        if (memberIds != null) {
+            mask |= MEMBER_IDS;
+        }
+        if (orderSearch.getMinTotalPrice() != null) {
+            mask |= MIN_TOTAL_PRICE;
+        }
+        if (orderSearch.getMaxTotalPrice() != null) {
+            mask |= MAX_TOTAL_PRICE;
+        }
+        if (orderSearch.getOrderDateFrom() != null) {
+            mask |= ORDER_DATE_FROM;
+        }
+        if (orderSearch.getOrderDateTo() != null) {
+            mask |= ORDER_DATE_TO;
+        }
+        if (orderSearch.getDeliveryStatus() != null) {
+            mask |= DELIVERY_STATUS;
+        }
+        if (StringUtils.hasText(orderSearch.getItemName())) {
+            mask |= ITEM_NAME;
+        }
+        return mask;
+    }
+
+    private static int sortIndex(OrderSort sort) {
+        return sort == null ? 0 : sort.ordinal() + 1;
+    }
+
+    private static String jpql(String select, int mask) {
+        List<String> conditions = new ArrayList<>();
+        if ((mask & STATUS) != 0) {
+            conditions.add("o.status = :status");
+        }
+        if ((mask & NAME) != 0) {
+            conditions.add("m.name like :name escape '!'");
+        }
+        if ((mask & MEMBER_IDS) != 0) {
+            conditions.add("o.member.id in :memberIds");
+        }
+        if ((mask & MIN_TOTAL_PRICE) != 0) {
+            conditions.add("o.totalPrice >= :minTotalPrice");
+        }
+        if ((mask & MAX_TOTAL_PRICE) != 0) {
+            conditions.add("o.totalPrice <= :maxTotalPrice");
+        }
+        if ((mask & ORDER_DATE_FROM) != 0) {
+            conditions.add("o.orderDate >= :orderDateFrom");
+        }
+        if ((mask & ORDER_DATE_TO) != 0) {
+            conditions.add("o.orderDate < :orderDateTo");
+        }
+        if ((mask & DELIVERY_STATUS) != 0) {
+            conditions.add("d.status = :deliveryStatus");
+        }
+        if ((mask & ITEM_NAME) != 0) {
+            conditions.add("o.id in (select oi.order.id from OrderItem oi where oi.item.id in" +
+                    " (select i.id from Item i where i.name like :itemName escape '!'))");
+        }
+
+        String jpql = select + " from Order o join o.member m";
+        if ((mask & DELIVERY_STATUS) != 0) {
+            jpql += " join o.delivery d";
+        }
+        if (!conditions.isEmpty()) {
+            jpql += " where " + String.join(" and ", conditions);
+        }
+        return jpql;
+    }
+
+    private static String orderBy(int sort, boolean paged) {
+        if (sort == 0) {
+            return paged ? " order by o.id desc" : "";
+        }
+        return OrderSort.values()[sort - 1] == OrderSort.TOTAL_PRICE_ASC
+                ? " order by o.totalPrice asc, o.id asc"
+                : " order by o.totalPrice desc, o.id desc";
+    }
+
+    /* where 동적 쿼리 생성 위해 만든 함수, OrderRepository와 같은 조건 */
+    private BooleanExpression statusEq(OrderStatus statusCond) {
+        return statusCond == null ? null : QOrder.order.status.eq(statusCond);
+    }
+
+    private BooleanExpression nameContains(String memberName) {
+        return StringUtils.hasText(memberName) ? QMember.member.name.contains(memberName) : null;
+    }
+
+    private BooleanExpression memberIdIn(Set<Long> memberIds) {
+        return memberIds == null ? null : QOrder.order.member.id.in(memberIds);
+    }
+
+    private BooleanExpression orderDateGoe(LocalDate from) {
+        return from == null ? null : QOrder.order.orderDate.goe(from.atStartOfDay());
+    }
+
+    private BooleanExpression orderDateLoe(LocalDate to) {
+        return to == null ? null : QOrder.order.orderDate.lt(to.plusDays(1).atStartOfDay());
+    }
+
+    private BooleanExpression deliveryStatusEq(DeliveryStatus deliveryStatus) {
+        return deliveryStatus == null ? null : QDelivery.delivery.status.eq(deliveryStatus);
+    }
+
+    private BooleanExpression itemNameContains(String itemName) {
+        if (!StringUtils.hasText(itemName)) {
+            return null;
+        }
+        QOrderItem orderItem = QOrderItem.orderItem;
+        QItem item = QItem.item;
+        return QOrder.order.id.in(JPAExpressions
+                .select(orderItem.order.id)
+                .from(orderItem)
+                .where(orderItem.item.id.in(JPAExpressions
+                        .select(item.id)
+                        .from(item)
+                        .where(item.name.contains(itemName)))));
+    }
+
+    // like 검색어의 %, _ 를 문자 그대로 찾도록 escape 한다 (escape 문자 '!')
+    private static String escapeLike(String value) {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private BooleanExpression totalPriceGoe(Integer minTotalPrice) {
+        return minTotalPrice == null ? null : QOrder.order.totalPrice.goe(minTotalPrice);
+    }
+
+    private BooleanExpression totalPriceLoe(Integer maxTotalPrice) {
+        return maxTotalPrice == null ? null : QOrder.order.totalPrice.loe(maxTotalPrice);
+    }
+
+    private OrderSpecifier<?>[] orderSpecifiers(OrderSort sort) {
+        if (sort == null) {
+            return new OrderSpecifier<?>[0];
+        }
+        switch (sort) {
+            case TOTAL_PRICE_ASC:
+                return new OrderSpecifier<?>[]{QOrder.order.totalPrice.asc(), QOrder.order.id.asc()};
+            case TOTAL_PRICE_DESC:
+                return new OrderSpecifier<?>[]{QOrder.order.totalPrice.desc(), QOrder.order.id.desc()};
+            default:
+                return new OrderSpecifier<?>[0];
+        }
+    }
+}
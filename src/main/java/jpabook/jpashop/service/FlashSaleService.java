@@ -0,0 +1,208 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.domain.FlashSale;
+import jpabook.jpashop.domain.item.Item;
+import jpabook.jpashop.repository.FlashSaleRepository;
+import jpabook.jpashop.repository.ItemRepository;
+import jpabook.jpashop.repository.OrderRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ flash sale 모드 (상품 단위로 켜고 끈다)
+ 켜져 있는 동안에는 OrderService가 item row를 update 하지 않고 FlashSaleStockAllocator에서 재고를 가져간다
+ db의 stock_quantity는 flush 주기마다 모아서 한번에 반영된다
+
+ start, end, flush, reconcile은 모두 allocator의 unflushed와 FlashSale.flushedSold를 같이 바꾸므로 lock으로 하나씩만 실행한다
+ lock은 트랜잭션이 끝나고 afterCompletion(실패 시 되돌리기)까지 돈 다음에 푼다 -> @Transactional 대신 TransactionTemplate
+*/
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FlashSaleService {
+
+    private static final long END_WAIT_MILLIS = 5000; // 종료 시 재고를 확보한 주문 트랜잭션이 끝나길 기다리는 시간
+
+    private final FlashSaleRepository flashSaleRepository;
+    private final ItemRepository itemRepository;
+    private final OrderRepository orderRepository;
+    private final FlashSaleStockAllocator flashSaleStockAllocator;
+    private final PlatformTransactionManager transactionManager;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /*
+     flash sale 시작
+     재고 스냅샷을 뜨는 동안 일반 주문이 재고를 바꾸지 못하도록 item row에 락을 잡는다
+     allocator는 락을 잡고 있는 동안 열어서 그 이후의 주문은 전부 메모리 재고를 쓰게 한다
+    */
+    public void start(Long itemId) {
+        executeLocked(() -> {
+            if(flashSaleStockAllocator.isActive(itemId)) {
+                throw new IllegalStateException("이미 flash sale 중인 상품입니다");
+            }
+
+            LocalDateTime startedAt = LocalDateTime.now();
+            Item item = itemRepository.findOneForUpdate(itemId);
+
+            FlashSale flashSale = flashSaleRepository.findById(itemId).orElse(null);
+            if(flashSale == null) {
+                flashSaleRepository.save(FlashSale.createFlashSale(itemId, item.getStockQuantity(), startedAt));
+            } else {
+                flashSale.restart(item.getStockQuantity(), startedAt);
+            }
+
+            flashSaleStockAllocator.open(itemId, item.getStockQuantity());
+            // 시작이 롤백되면 allocator도 닫는다
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if(status != STATUS_COMMITTED) {
+                        flashSaleStockAllocator.close(itemId);
+                    }
+                }
+            });
+        });
+    }
+
+    /*
+     flash sale 종료, 남은 판매 수량을 db에 반영하고 일반 주문 경로로 돌아간다
+     1) item row 락 : 입장이 막힌 뒤 db 경로로 넘어온 주문은 종료가 커밋될 때까지 조건부 update에서 기다린다
+     2) 입장을 막고 재고를 확보한 주문 트랜잭션이 모두 끝날 때까지 기다린다
+     3) 그 다음에 unflushed를 꺼내서 반영한다 -> 꺼낸 뒤에 커밋되는 판매가 없다
+     allocator는 커밋된 다음에 닫고, 롤백되면 꺼낸 수량을 돌려놓고 다시 주문을 받는다
+    */
+    public void end(Long itemId) {
+        executeLocked(() -> {
+            FlashSale flashSale = flashSaleRepository.findById(itemId)
+                    .filter(FlashSale::isActive)
+                    .orElseThrow(() -> new IllegalStateException("flash sale 중인 상품이 아닙니다"));
+
+            itemRepository.findOneForUpdate(itemId);
+            if(!closeAdmission(itemId)) {
+                flashSaleStockAllocator.reopenAdmission(itemId);
+                throw new IllegalStateException("진행 중인 주문이 끝나지 않아 flash sale을 종료하지 못했습니다 itemId=" + itemId);
+            }
+
+            int unflushed = flashSaleStockAllocator.drainUnflushed(itemId);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if(status == STATUS_COMMITTED) {
+                        flashSaleStockAllocator.close(itemId);
+                    } else {
+                        flashSaleStockAllocator.restoreUnflushed(itemId, unflushed);
+                        flashSaleStockAllocator.reopenAdmission(itemId);
+                    }
+                }
+            });
+            if(unflushed != 0) {
+                itemRepository.addStock(itemId, -unflushed);
+            }
+            flashSale.flushed(unflushed);
+            flashSale.end();
+        });
+    }
+
+    public int remaining(Long itemId) {
+        return flashSaleStockAllocator.remaining(itemId);
+    }
+
+    /*
+     주기적으로 메모리의 판매 수량을 db에 반영한다
+     stock = stock - ? 형태의 상대값 update라서 그 사이에 다른 경로로 바뀐 재고(취소 등)를 덮어쓰지 않는다
+     반영한 수량은 같은 트랜잭션에서 FlashSale.flushedSold에도 더한다 (재시작 시 reconcile 기준)
+     커밋에 실패하면 꺼내왔던 변화량을 다시 돌려놓고 다음 주기에 반영한다
+    */
+    @Scheduled(fixedDelayString = "${jpashop.flash-sale.flush-interval-ms:1000}")
+    public void flush() {
+        executeLocked(() -> {
+            Map<Long, Integer> unflushed = flashSaleStockAllocator.drainUnflushed();
+            if(unflushed.isEmpty()) {
+                return;
+            }
+
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if(status != STATUS_COMMITTED) {
+                        unflushed.forEach(flashSaleStockAllocator::restoreUnflushed);
+                    }
+                }
+            });
+            unflushed.forEach((itemId, count) -> {
+                itemRepository.addStock(itemId, -count);
+                flashSaleRepository.findById(itemId).ifPresent(flashSale -> flashSale.flushed(count));
+            });
+        });
+    }
+
+    /*
+     재시작 시 복구
+     마지막 flush 이후에 팔린 수량은 메모리에만 있었으므로 db 재고에 빠져 있다
+     flash sale로 판 주문 상품 수량(OrderItem.flashSale) - flushedSold 만큼만 db에서 더 빼고, 나머지 db 재고를 그대로 메모리 재고로 연다
+     -> flash sale 전에 들어온 주문은 세지 않고, 취소로 복구된 재고는 이미 db에 있으므로 그대로 남는다
+    */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcile() {
+        executeLocked(() -> {
+            for (FlashSale flashSale : flashSaleRepository.findByActiveTrue()) {
+                Long itemId = flashSale.getItemId();
+                Item item = itemRepository.findOneForUpdate(itemId);
+                long sold = orderRepository.sumFlashSaleCount(itemId, flashSale.getStartedAt());
+                int unflushed = (int) (sold - flashSale.getFlushedSold());
+
+                if(unflushed != 0) {
+                    itemRepository.addStock(itemId, -unflushed);
+                }
+                flashSale.flushed(unflushed);
+                int remaining = Math.max(0, item.getStockQuantity() - unflushed);
+
+                flashSaleStockAllocator.open(itemId, remaining);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        if(status != STATUS_COMMITTED) {
+                            flashSaleStockAllocator.close(itemId);
+                        }
+                    }
+                });
+                log.info("flash sale reconciled itemId={} sold={} unflushed={} remaining={}",
+                        itemId, sold, unflushed, remaining);
+            }
+        });
+    }
+
+    private boolean closeAdmission(Long itemId) {
+        try {
+            return flashSaleStockAllocator.closeAdmission(itemId, END_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void executeLocked(Runnable work) {
+        lock.lock();
+        try {
+            new TransactionTemplate(transactionManager).execute(status -> {
+                work.run();
+                return null;
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package jpabook.jpashop.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ flash sale 상품의 메모리 재고
+ 수천개의 주문이 같은 item row를 update 하려고 줄을 서는 대신 여기서 CAS로 재고를 확보한다 (락 없음)
+ remaining : 지금 팔 수 있는 재고, 0이 되면 db에 가지 않고 바로 거절된다
+ unflushed : 아직 db에 반영되지 않은 판매 수량 (롤백된 주문은 빠진다), FlashSaleService가 주기적으로 db에 반영한다
+ inFlight : 재고를 확보하고 아직 커밋/롤백되지 않은 주문 트랜잭션 수
+ 종료할 때는 입장을 먼저 막고(closing) inFlight가 0이 될 때까지 기다린 다음에 unflushed를 꺼내간다
+ -> 꺼낸 다음에 커밋되는 판매가 없으므로 db에 반영되지 않고 사라지는 판매가 없다
+*/
+@Component
+public class FlashSaleStockAllocator {
+
+    private final ConcurrentMap<Long, Stock> stocks = new ConcurrentHashMap<>();
+
+    public void open(Long itemId, int stockQuantity) {
+        stocks.put(itemId, new Stock(stockQuantity));
+    }
+
+    public void close(Long itemId) {
+        stocks.remove(itemId);
+    }
+
+    // 종료 중인 상품은 flash sale이 아닌 것으로 본다 -> 새 주문은 db 경로로 간다
+    public boolean isActive(Long itemId) {
+        Stock stock = stocks.get(itemId);
+        return stock != null && !stock.closing;
+    }
+
+    /*
+     재고 확보, 재고가 모자라거나 flash sale이 그 사이에 끝났으면(종료 중 포함) false
+     true를 받은 쪽은 트랜잭션이 끝날 때 exit를 불러야 한다 (종료가 이 트랜잭션을 기다린다)
+    */
+    public boolean tryAcquire(Long itemId, int count) {
+        Stock stock = stocks.get(itemId);
+        if(stock == null || !stock.enter()) {
+            return false;
+        }
+        while (true) {
+            int current = stock.remaining.get();
+            if(current < count) {
+                stock.exit();
+                return false;
+            }
+            if(stock.remaining.compareAndSet(current, current - count)) {
+                stock.unflushed.addAndGet(count);
+                return true;
+            }
+        }
+    }
+
+    public void exit(Long itemId) {
+        Stock stock = stocks.get(itemId);
+        if(stock != null) {
+            stock.exit();
+        }
+    }
+
+    // 주문 롤백 시 확보했던 재고를 돌려준다
+    public void release(Long itemId, int count) {
+        Stock stock = stocks.get(itemId);
+        if(stock == null) {
+            return;
+        }
+        stock.remaining.addAndGet(count);
+        stock.unflushed.addAndGet(-count);
+    }
+
+    // 주문 취소로 db에 이미 복구된 재고를 팔 수 있는 재고에도 더한다 (db에 다시 반영할 필요가 없으므로 unflushed는 그대로)
+    public void restock(Long itemId, int count) {
+        Stock stock = stocks.get(itemId);
+        if(stock != null) {
+            stock.remaining.addAndGet(count);
+        }
+    }
+
+    public int remaining(Long itemId) {
+        Stock stock = stocks.get(itemId);
+        return stock == null ? 0 : stock.remaining.get();
+    }
+
+    /*
+     종료 준비, 새 주문의 입장을 막고 재고를 확보한 주문 트랜잭션이 모두 끝날 때까지 기다린다
+     timeoutMillis 안에 끝나지 않으면 false (입장은 막힌 채로 남으므로 reopenAdmission으로 되돌린다)
+    */
+    public boolean closeAdmission(Long itemId, long timeoutMillis) throws InterruptedException {
+        Stock stock = stocks.get(itemId);
+        if(stock == null) {
+            return true;
+        }
+        stock.closing = true;
+        return stock.awaitIdle(timeoutMillis);
+    }
+
+    // 종료가 실패(롤백)한 경우 다시 주문을 받는다
+    public void reopenAdmission(Long itemId) {
+        Stock stock = stocks.get(itemId);
+        if(stock != null) {
+            stock.closing = false;
+        }
+    }
+
+    // 아직 db에 반영되지 않은 변화량을 꺼내간다 (꺼낸 값은 0으로 초기화)
+    public Map<Long, Integer> drainUnflushed() {
+        Map<Long, Integer> result = new HashMap<>();
+        stocks.forEach((itemId, stock) -> {
+            int unflushed = stock.unflushed.getAndSet(0);
+            if(unflushed != 0) {
+                result.put(itemId, unflushed);
+            }
+        });
+        return result;
+    }
+
+    public int drainUnflushed(Long itemId) {
+        Stock stock = stocks.get(itemId);
+        return stock == null ? 0 : stock.unflushed.getAndSet(0);
+    }
+
+    // db 반영에 실패한 변화량을 다시 돌려놓는다
+    public void restoreUnflushed(Long itemId, int count) {
+        Stock stock = stocks.get(itemId);
+        if(stock != null) {
+            stock.unflushed.addAndGet(count);
+        }
+    }
+
+    private static class Stock {
+        final AtomicInteger remaining;
+        final AtomicInteger unflushed = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean closing;
+
+        Stock(int remaining) {
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+        // inFlight를 먼저 올리고 closing을 본다 -> 종료 쪽은 closing을 먼저 세우고 inFlight를 보므로 둘 중 하나는 반드시 상대를 본다
+        boolean enter() {
+            inFlight.incrementAndGet();
+            if(closing) {
+                exit();
+                return false;
+            }
+            return true;
+        }
+
+        void exit() {
+            if(inFlight.decrementAndGet() == 0 && closing) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (inFlight.get() > 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+    }
+}
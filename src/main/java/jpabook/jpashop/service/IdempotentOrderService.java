@@ -0,0 +1,98 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.cache.ExpiringCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Idempotency-Key 헤더가 붙은 주문 요청 처리
+ 1) 메모리 캐시 (크기 제한 + 만료) -> 재시도 요청은 트랜잭션도 열지 않고 바로 원래 주문 id를 돌려준다
+ 2) 캐시에 없으면 OrderService에서 order_idempotency_key 테이블을 보고 주문한다
+ 캐시와 테이블 모두 (회원 id, 키)로 찾는다 -> 다른 회원이 같은 키를 보내도 남의 주문 id를 돌려주지 않는다
+ 트랜잭션을 열기 전에 캐시를 봐야 하므로 클래스에 @Transactional을 붙이지 않았다
+
+ 키는 cacheTtlMinutes 동안만 기억한다, 테이블에서도 그보다 오래된 키는 주기적으로 지운다 (테이블이 끝없이 커지지 않도록)
+*/
+@Slf4j
+@Service
+public class IdempotentOrderService {
+
+    private final OrderService orderService;
+    private final OrderIngestionQueue orderIngestionQueue;
+    private final ExpiringCache<String, Long> cache;
+    private final long cacheTtlMinutes;
+
+    public IdempotentOrderService(OrderService orderService,
+                                  OrderIngestionQueue orderIngestionQueue,
+                                  @Value("${jpashop.idempotency.cache-size:100000}") int cacheSize,
+                                  @Value("${jpashop.idempotency.cache-ttl-minutes:10}") long cacheTtlMinutes) {
+        this.orderService = orderService;
+        this.orderIngestionQueue = orderIngestionQueue;
+        this.cache = new ExpiringCache<>(cacheSize, cacheTtlMinutes, TimeUnit.MINUTES);
+        this.cacheTtlMinutes = cacheTtlMinutes;
+    }
+
+    public Long order(String idempotencyKey, Long memberId, Map<Long, Integer> itemCounts) {
+        String cacheKey = cacheKey(memberId, idempotencyKey);
+        Long orderId = cache.get(cacheKey);
+        if(orderId != null) {
+            return orderId;
+        }
+
+        try {
+            orderId = orderService.order(idempotencyKey, memberId, itemCounts);
+        } catch (DataIntegrityViolationException e) {
+            // 같은 키로 동시에 들어온 다른 요청이 먼저 커밋한 경우 -> 그 주문 id를 돌려준다
+            orderId = orderService.findOrderIdByIdempotencyKey(memberId, idempotencyKey);
+            if(orderId == null) {
+                throw e;
+            }
+        }
+
+        // OrderService.order가 리턴했다는 것은 커밋이 끝났다는 의미이므로 여기서 캐시에 넣는다
+        cache.put(cacheKey, orderId);
+        return orderId;
+    }
+
+    /*
+     대기열 접수 방식 (OrderIngestionQueue)
+     캐시에 있으면 대기열에 넣지 않고 바로 완료된 future를 돌려준다
+     캐시에 없으면 키와 같이 대기열에 넣는다, 테이블 조회와 동시 요청 처리는 writer가 OrderService.order(key, ...)로 한다
+    */
+    public CompletableFuture<Long> submit(String idempotencyKey, Long memberId, Map<Long, Integer> itemCounts) {
+        String cacheKey = cacheKey(memberId, idempotencyKey);
+        Long orderId = cache.get(cacheKey);
+        if(orderId != null) {
+            return CompletableFuture.completedFuture(orderId);
+        }
+
+        // future는 그룹이 커밋된 다음에 완료된다
+        return orderIngestionQueue.submit(idempotencyKey, memberId, itemCounts)
+                .thenApply(id -> {
+                    cache.put(cacheKey, id);
+                    return id;
+                });
+    }
+
+    // 키는 공백 없는 문자만 받으므로(OrderApiController) 공백으로 구분하면 겹치지 않는다
+    private static String cacheKey(Long memberId, String idempotencyKey) {
+        return memberId + " " + idempotencyKey;
+    }
+
+    // 캐시 만료 시간이 지난 키를 테이블에서 지운다
+    @Scheduled(fixedDelayString = "${jpashop.idempotency.purge-interval-ms:60000}")
+    public void purgeExpiredKeys() {
+        int deleted = orderService.deleteIdempotencyKeysCreatedBefore(LocalDateTime.now().minusMinutes(cacheTtlMinutes));
+        if(deleted > 0) {
+            log.info("expired idempotency keys deleted count={}", deleted);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package jpabook.jpashop.service;
 
+import jpabook.jpashop.cache.ChangeVersionTracker;
+import jpabook.jpashop.cache.OrderSearchCache;
 import jpabook.jpashop.domain.item.Book;
 import jpabook.jpashop.domain.item.Item;
 import jpabook.jpashop.repository.ItemRepository;
@@ -15,6 +17,8 @@ import java.util.List;
 public class ItemService {
 
     private final ItemRepository itemRepository;
+    private final OrderSearchCache orderSearchCache;
+    private final ChangeVersionTracker changeVersionTracker;
 
     @Transactional
     public void saveItem(Item item) {
@@ -28,6 +32,8 @@ public class ItemService {
         findItem.setName(name);
         findItem.setPrice(price);
         findItem.setStockQuantity(stockQuantity);
+        orderSearchCache.invalidateAfterCommit(); // 상품명이 바뀌면 상품명 검색 결과가 달라진다
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.ORDERS); // 주문 목록(v4)의 상품명
 
         // 지금 가져온 놈은 영속성 상태이기 때문에 따로 save를 해줄 필요가 없다
     }
@@ -1,8 +1,13 @@
 package jpabook.jpashop.service;
 
+import jpabook.jpashop.cache.ChangeVersionTracker;
+import jpabook.jpashop.cache.OrderSearchCache;
 import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.repository.MemberNameIndex;
 import jpabook.jpashop.repository.MemberRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,6 +23,9 @@ public class MemberService {
     // Autowired는 생성자 이용하지 않아서 유연하지 않다
     // 1) 직접 생성자를 만들어주거나 2) @RequiredArgsConstructor annotation을 추가해서 자동으로 생성자를 추가하게끔 만들어준다
     private final MemberRepository memberRepository;
+    private final OrderSearchCache orderSearchCache;
+    private final MemberNameIndex memberNameIndex;
+    private final ChangeVersionTracker changeVersionTracker;
 
     // 회원 가입
     // 여기서 transactional 설정을 달리한다 read 말고 write도 쓸 것이기 때문
@@ -25,6 +33,7 @@ public class MemberService {
     public Long join(Member member) {
         validateDuplicateMember(member); // 중복 회원을 검증하는 로직임
         memberRepository.save(member);
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.MEMBERS);
         return member.getId();
     }
 
@@ -36,6 +45,17 @@ public class MemberService {
         }
     }
 
+    /*
+     회원 이름 검색 색인을 db의 회원으로 채운다
+     이후의 가입, 이름 변경은 MemberNameIndexListener가 반영한다
+     ApplicationReadyEvent는 톰캣이 요청을 받기 시작한 뒤라서 그 전인 ContextRefreshedEvent에 채운다
+     (다 채우기 전에는 색인이 완전하지 않아서 주문 검색이 like 조건만 쓴다)
+    */
+    @EventListener(ContextRefreshedEvent.class)
+    public void buildMemberNameIndex() {
+        memberNameIndex.rebuild(memberRepository.findAllIdAndName());
+    }
+
     // 회원 전체 조회
     public List<Member> findMembers() {
         return memberRepository.findAll();
@@ -62,6 +82,10 @@ public class MemberService {
     public void update(Long id, String name) {
         Member member = memberRepository.findById(id).get();
         member.setName(name);
+        // 주문 검색은 회원 이름으로도 하므로 캐시된 검색 결과가 달라질 수 있다
+        orderSearchCache.invalidateAfterCommit();
+        // 주문 목록(v4)에도 회원 이름이 들어간다
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.MEMBERS, ChangeVersionTracker.Resource.ORDERS);
     }
 
 }
@@ -0,0 +1,112 @@
+package jpabook.jpashop.service;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.Writer;
+
+/*
+ 주문 전체 csv 내보내기 (정산용, 매일 밤 전체 주문을 가져간다)
+ v3, v6는 전체 결과를 영속성 컨텍스트와 List에 올린 다음 응답을 쓰므로 주문이 많을수록 힙이 커진다
+
+ StatelessSession : 영속성 컨텍스트가 없는 세션이라 읽은 row를 어디에도 들고 있지 않는다 (1차 캐시, 스냅샷, 2차 캐시 모두 없음)
+ 주문 상품 - 주문 - 회원 - 상품을 조인한 컬럼만 forward-only 커서로 fetchSize 씩 받아서 한 줄씩 바로 writer에 쓴다
+ -> 내보내는 row 수와 상관없이 힙 사용량이 일정하다
+
+ mysql에서 커서로 받으려면 fetch-size를 Integer.MIN_VALUE로 줘야 한다 (application.yml)
+*/
+@Service
+public class OrderExportService {
+
+    static final String HEADER = "order_id,member_name,order_date,order_status,total_price,item_name,order_price,count";
+
+    private static final String EXPORT_JPQL =
+            "select o.id, m.name, o.orderDate, o.status, o.totalPrice, i.name, oi.orderPrice, oi.count" +
+                    " from OrderItem oi" +
+                    " join oi.order o" +
+                    " join o.member m" +
+                    " join oi.item i" +
+                    " order by o.id, oi.id";
+
+    private final SessionFactory sessionFactory;
+    private final int fetchSize;
+
+    public OrderExportService(EntityManagerFactory emf,
+                              @Value("${jpashop.order-export.fetch-size:1000}") int fetchSize) {
+        this.sessionFactory = emf.unwrap(SessionFactory.class);
+        this.fetchSize = fetchSize;
+    }
+
+    /*
+     주문 상품 한 건이 csv 한 줄, 같은 주문의 상품은 연달아 나온다
+     writer는 호출하는 쪽에서 버퍼링하고 닫는다, 쓴 row 수(헤더 제외)를 돌려준다
+    */
+    public long exportCsv(Writer writer) throws IOException {
+        StatelessSession session = sessionFactory.openStatelessSession();
+        Transaction tx = session.beginTransaction(); // 커서는 트랜잭션 안에서 열어야 끝까지 유지된다 (autocommit이면 db에 따라 한번에 다 받는다)
+        ScrollableResults rows = null;
+        try {
+            rows = session.createQuery(EXPORT_JPQL)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+
+            writer.write(HEADER);
+            writer.write('\n');
+            long count = 0;
+            StringBuilder line = new StringBuilder(128);
+            while (rows.next()) {
+                Object[] row = rows.get();
+                line.setLength(0);
+                for (int i = 0; i < row.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendCsv(line, row[i]);
+                }
+                line.append('\n');
+                writer.append(line);
+                count++;
+            }
+            writer.flush();
+            tx.commit();
+            return count;
+        } finally {
+            if (rows != null) {
+                rows.close();
+            }
+            if (tx.isActive()) {
+                tx.rollback(); // 쓰는 도중 예외 (클라이언트 연결 끊김 등)
+            }
+            session.close();
+        }
+    }
+
+    // 쉼표, 따옴표, 줄바꿈이 들어있는 값은 따옴표로 감싸고 따옴표는 두번 쓴다 (RFC 4180)
+    static void appendCsv(StringBuilder line, Object value) {
+        if (value == null) {
+            return;
+        }
+        String text = value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,205 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.exception.OrderQueueClosedException;
+import jpabook.jpashop.exception.OrderQueueFullException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ write-behind 주문 접수 대기열
+ 요청 스레드는 주문을 대기열에 넣고 바로 future를 돌려받는다
+ writer 스레드 하나가 대기열에서 최대 groupSize 개씩 꺼내서 하나의 트랜잭션으로 저장한다 (group commit)
+ -> 커밋, flush가 주문마다가 아니라 그룹마다 한번씩 일어나고 insert는 jdbc batch로 묶인다
+ 각 주문의 future는 그룹이 커밋된 다음에 주문 id로 완료된다
+
+ 대기열이 가득 차면 offerTimeoutMs 만큼 기다렸다가 OrderQueueFullException(503)을 던진다 (back-pressure)
+ Idempotency-Key가 붙은 주문은 OrderService.order(key, ...)로 저장한다
+ -> 같은 그룹 안에 같은 키가 두번 있으면 두번째는 영속성 컨텍스트에 있는 첫번째 키를 찾아서 같은 주문 id를 받는다
+ 멈춘 뒤에 들어온 주문, 종료 대기 시간 안에 저장하지 못한 주문은 OrderQueueClosedException(503)으로 끝낸다 -> future가 영원히 남지 않는다
+*/
+@Slf4j
+@Component
+public class OrderIngestionQueue {
+
+    private final OrderService orderService;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<PendingOrder> queue;
+    private final int groupSize;
+    private final long offerTimeoutMs;
+    private final long stopTimeoutMs;
+
+    private Thread writer;
+    private volatile boolean running;
+
+    public OrderIngestionQueue(OrderService orderService,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${jpashop.order-ingestion.capacity:10000}") int capacity,
+                               @Value("${jpashop.order-ingestion.group-size:100}") int groupSize,
+                               @Value("${jpashop.order-ingestion.offer-timeout-ms:100}") long offerTimeoutMs,
+                               @Value("${jpashop.order-ingestion.stop-timeout-ms:30000}") long stopTimeoutMs) {
+        this.orderService = orderService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.groupSize = groupSize;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.stopTimeoutMs = stopTimeoutMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::drain, "order-ingestion-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /*
+     종료 시 대기열에 남은 주문까지 저장하고 끝낸다
+     writer가 stopTimeoutMs 안에 끝나지 않으면 아직 꺼내가지 않은 주문은 실패로 끝낸다 (writer가 저장 중인 그룹은 writer가 끝낸다)
+    */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(stopTimeoutMs);
+
+        List<PendingOrder> leftover = new ArrayList<>();
+        queue.drainTo(leftover);
+        if(!leftover.isEmpty()) {
+            log.warn("order ingestion stopped with {} orders not persisted", leftover.size());
+        }
+        leftover.forEach(p -> p.future.completeExceptionally(new OrderQueueClosedException("주문 대기열이 종료되어 저장하지 못했습니다")));
+    }
+
+    /*
+     멈춘 뒤에는 받지 않는다
+     넣은 직후에 다시 확인해서 stop과 엇갈린 경우(stop이 남은 주문을 정리한 뒤에 들어간 경우)에도 꺼내서 거절한다
+     꺼내지 못했다면 writer나 stop이 이미 가져간 것이므로 그쪽에서 future를 끝낸다
+    */
+    public CompletableFuture<Long> submit(Long memberId, Map<Long, Integer> itemCounts) {
+        return submit(null, memberId, itemCounts);
+    }
+
+    // idempotencyKey가 null이면 키 없는 주문
+    public CompletableFuture<Long> submit(String idempotencyKey, Long memberId, Map<Long, Integer> itemCounts) {
+        if(!running) {
+            throw new OrderQueueClosedException("주문 대기열이 종료되었습니다");
+        }
+        PendingOrder pendingOrder = new PendingOrder(idempotencyKey, memberId, itemCounts);
+        try {
+            if(!queue.offer(pendingOrder, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new OrderQueueFullException("주문 대기열이 가득 찼습니다");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OrderQueueFullException("주문 대기열이 가득 찼습니다", e);
+        }
+        if(!running && queue.remove(pendingOrder)) {
+            throw new OrderQueueClosedException("주문 대기열이 종료되었습니다");
+        }
+        return pendingOrder.future;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    private void drain() {
+        List<PendingOrder> group = new ArrayList<>(groupSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                // 하나가 들어올 때까지는 기다리고, 그 뒤로는 이미 쌓여 있는 만큼만 바로 꺼낸다 (그룹을 채우려고 기다리지 않음)
+                PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group, groupSize - 1);
+                persist(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("order ingestion writer failed", e);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /*
+     그룹 전체를 하나의 트랜잭션으로 저장한다
+     그룹 안의 주문 하나라도 실패하면 (재고 부족 등) 트랜잭션 전체가 rollback-only가 되므로
+     그때는 주문마다 각자의 트랜잭션으로 다시 저장해서 실패한 주문만 실패 처리한다
+    */
+    private void persist(List<PendingOrder> group) {
+        List<Long> orderIds;
+        try {
+            orderIds = transactionTemplate.execute(status -> {
+                List<Long> ids = new ArrayList<>(group.size());
+                for (PendingOrder pendingOrder : group) {
+                    ids.add(order(pendingOrder));
+                }
+                return ids;
+            });
+        } catch (RuntimeException e) {
+            persistOneByOne(group);
+            return;
+        }
+
+        // 커밋이 끝난 다음에 응답을 보낸다
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).future.complete(orderIds.get(i));
+        }
+    }
+
+    private void persistOneByOne(List<PendingOrder> group) {
+        for (PendingOrder pendingOrder : group) {
+            try {
+                pendingOrder.future.complete(order(pendingOrder));
+            } catch (DataIntegrityViolationException e) {
+                // 같은 키로 다른 요청이 먼저 커밋한 경우 -> 그 주문 id를 돌려준다 (IdempotentOrderService와 같은 처리)
+                Long orderId = pendingOrder.idempotencyKey == null ? null : orderService.findOrderIdByIdempotencyKey(pendingOrder.memberId, pendingOrder.idempotencyKey);
+                if(orderId != null) {
+                    pendingOrder.future.complete(orderId);
+                } else {
+                    pendingOrder.future.completeExceptionally(e);
+                }
+            } catch (RuntimeException e) {
+                pendingOrder.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Long order(PendingOrder pendingOrder) {
+        return pendingOrder.idempotencyKey == null
+                ? orderService.order(pendingOrder.memberId, pendingOrder.itemCounts)
+                : orderService.order(pendingOrder.idempotencyKey, pendingOrder.memberId, pendingOrder.itemCounts);
+    }
+
+    private static class PendingOrder {
+        final String idempotencyKey;
+        final Long memberId;
+        final Map<Long, Integer> itemCounts;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingOrder(String idempotencyKey, Long memberId, Map<Long, Integer> itemCounts) {
+            this.idempotencyKey = idempotencyKey;
+            this.memberId = memberId;
+            this.itemCounts = itemCounts;
+        }
+    }
+}
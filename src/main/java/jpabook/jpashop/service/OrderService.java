@@ -1,33 +1,67 @@
 package jpabook.jpashop.service;
 
+import jpabook.jpashop.cache.ChangeVersionTracker;
+import jpabook.jpashop.cache.OrderSearchCache;
 import jpabook.jpashop.domain.Delivery;
+import jpabook.jpashop.domain.DeliveryStatus;
 import jpabook.jpashop.domain.Member;
 import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderIdempotencyKey;
 import jpabook.jpashop.domain.OrderItem;
+import jpabook.jpashop.domain.OrderStatus;
 import jpabook.jpashop.domain.item.Item;
+import jpabook.jpashop.exception.NotEnoughStockException;
+import jpabook.jpashop.exception.OrderNotFoundException;
 import jpabook.jpashop.repository.ItemRepository;
 import jpabook.jpashop.repository.MemberRepository;
+import jpabook.jpashop.repository.OrderCursor;
+import jpabook.jpashop.repository.OrderFetchPlan;
+import jpabook.jpashop.repository.OrderIdempotencyKeyRepository;
+import jpabook.jpashop.repository.OrderPage;
 import jpabook.jpashop.repository.OrderRepository;
 import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderSimpleQueryDto;
+import jpabook.jpashop.repository.order.query.OrderSearchQueryRepository;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class OrderService {
 
+    private static final int IN_CHUNK_SIZE = 1000; // in 절에 한번에 넣을 id 수
+    public static final int COUNT_LIMIT = 10000; // 검색 결과 건수는 여기까지만 센다 (넘으면 "10000건 이상")
+
     private final OrderRepository orderRepository;
     private final MemberRepository memberRepository;
     private final ItemRepository itemRepository;
+    private final FlashSaleStockAllocator flashSaleStockAllocator;
+    private final OrderIdempotencyKeyRepository orderIdempotencyKeyRepository;
+    private final OrderSearchCache orderSearchCache;
+    private final OrderSearchQueryRepository orderSearchQueryRepository;
+    private final ChangeVersionTracker changeVersionTracker;
 
     // 주문
     @Transactional
     public Long order(Long memberId, Long itemId, int count) {
 
+        // flash sale 중인 상품은 db에 가기 전에 메모리 재고부터 확보한다 -> 품절이면 여기서 바로 거절
+        boolean flashSale = acquireFlashSaleStock(itemId, count);
+
         // 엔티티 생성
         /* MemberRepository interface가 생기기 전 코드
         Member member = memberRepository.findOne(memberId);
@@ -39,8 +73,14 @@ public class OrderService {
         Delivery delivery = new Delivery();
         delivery.setAddress(member.getAddress());
 
+        // 재고 차감 (조건부 update)
+        if(!flashSale) {
+            removeStock(item, count);
+        }
+
         // 주문 상품 생성
-        OrderItem orderItem = OrderItem.createOrderItem(item, item.getPrice(), count);
+        OrderItem orderItem = OrderItem.createReservedOrderItem(item, item.getPrice(), count);
+        orderItem.setFlashSale(flashSale);
 
         // 주문 생성
         Order order = Order.createOrder(member, delivery, orderItem);
@@ -48,21 +88,344 @@ public class OrderService {
         // 주문 저장
         // cascade 옵션이 있기 때문에 delivery와 orderItem은 자동으로 함께 persist가 되면서 db에 들어가게 된다
         orderRepository.save(order);
+        orderSearchCache.invalidateAfterCommit(); // 새 주문이 기존 검색 결과에 들어갈 수 있다
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.ORDERS);
 
         return order.getId();
     }
 
-    // 주문 취소
+    /*
+     여러 상품 주문
+     itemCounts : 상품 id -> 주문 수량 (LinkedHashMap을 넘기면 주문 상품 순서가 유지된다)
+     상품이 몇 개든 상품 조회는 in 쿼리 1번, 주문은 하나의 Order에 OrderItem N개로 만들어서 저장한다
+     insert는 hibernate.jdbc.batch_size 설정에 의해 batch로 묶여서 나가게 된다
+    */
+    @Transactional
+    public Long order(Long memberId, Map<Long, Integer> itemCounts) {
+
+        Map<Long, Integer> dbStockCounts = new TreeMap<>();
+        for (Map.Entry<Long, Integer> itemCount : itemCounts.entrySet()) {
+            if(!acquireFlashSaleStock(itemCount.getKey(), itemCount.getValue())) {
+                dbStockCounts.put(itemCount.getKey(), itemCount.getValue());
+            }
+        }
+
+        Member member = memberRepository.findById(memberId).get();
+        Map<Long, Item> items = itemRepository.findAllByIds(itemCounts.keySet()).stream()
+                .collect(Collectors.toMap(Item::getId, Function.identity()));
+
+        // 배송 정보 생성
+        Delivery delivery = new Delivery();
+        delivery.setAddress(member.getAddress());
+
+        // 재고 차감, 여러 주문이 같은 상품들을 서로 다른 순서로 잠그면 데드락이 날 수 있으므로 상품 id 순서대로 update 한다
+        for (Long itemId : itemCounts.keySet()) {
+            if(!items.containsKey(itemId)) {
+                throw new IllegalArgumentException("존재하지 않는 상품입니다 itemId=" + itemId);
+            }
+        }
+        for (Map.Entry<Long, Integer> itemCount : dbStockCounts.entrySet()) {
+            removeStock(items.get(itemCount.getKey()), itemCount.getValue());
+        }
+
+        // 주문 상품 생성
+        List<OrderItem> orderItems = new ArrayList<>();
+        for (Map.Entry<Long, Integer> itemCount : itemCounts.entrySet()) {
+            Item item = items.get(itemCount.getKey());
+            OrderItem orderItem = OrderItem.createReservedOrderItem(item, item.getPrice(), itemCount.getValue());
+            orderItem.setFlashSale(!dbStockCounts.containsKey(item.getId()));
+            orderItems.add(orderItem);
+        }
+
+        // 주문 생성 및 저장
+        Order order = Order.createOrder(member, delivery, orderItems.toArray(new OrderItem[0]));
+        orderRepository.save(order);
+        orderSearchCache.invalidateAfterCommit(); // 새 주문이 기존 검색 결과에 들어갈 수 있다
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.ORDERS);
+
+        return order.getId();
+    }
+
+    /*
+     Idempotency-Key가 붙은 주문 (재시도 요청이 주문을 두번 만들지 않도록)
+     키는 회원마다 따로 본다 (OrderIdempotencyKey의 pk가 회원 id + 키)
+     이미 같은 회원, 같은 키로 저장된 주문이 있으면 새로 주문하지 않고 그 주문 id를 돌려준다
+     키와 주문이 같은 트랜잭션에서 저장되므로 둘 중 하나만 남는 일은 없다
+     같은 키로 동시에 들어온 두 요청은 키(pk) insert에서 하나가 실패하고 주문, 재고 차감까지 같이 롤백된다
+     메모리 캐시 조회는 트랜잭션 밖(IdempotentOrderService)에서 먼저 한다
+    */
+    @Transactional
+    public Long order(String idempotencyKey, Long memberId, Map<Long, Integer> itemCounts) {
+        Long orderId = findOrderIdByIdempotencyKey(memberId, idempotencyKey);
+        if(orderId != null) {
+            return orderId;
+        }
+
+        orderId = order(memberId, itemCounts);
+        orderIdempotencyKeyRepository.save(OrderIdempotencyKey.createOrderIdempotencyKey(memberId, idempotencyKey, orderId));
+        return orderId;
+    }
+
+    public Long findOrderIdByIdempotencyKey(Long memberId, String idempotencyKey) {
+        OrderIdempotencyKey findKey = orderIdempotencyKeyRepository.findOne(memberId, idempotencyKey);
+        return findKey == null ? null : findKey.getOrderId();
+    }
+
+    @Transactional
+    public int deleteIdempotencyKeysCreatedBefore(LocalDateTime time) {
+        return orderIdempotencyKeyRepository.deleteCreatedBefore(time);
+    }
+
+    /*
+     주문 취소
+     주문 row에 락을 잡고 읽는다 -> 같은 주문을 동시에 취소하면 나중 쪽은 먼저 커밋된 취소를 보고 재고를 다시 복구하지 않는다
+    */
     @Transactional
     public void cancelOrder(Long orderId) {
         // 주문 엔티티를 조회하고 주문을 취소한다
-        Order order = orderRepository.findOne(orderId);
-        order.cancel();
+        Order order = orderRepository.findOneForUpdate(orderId);
+        if(order == null) {
+            throw new OrderNotFoundException("주문이 없습니다 orderId=" + orderId);
+        }
+        if(order.getStatus() == OrderStatus.CANCEL) {
+            return;
+        }
+        order.cancelStatus();
+        orderSearchCache.invalidateAfterCommit();
+        changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.ORDERS);
+
+        // 재고 복구도 차감과 마찬가지로 db에서 현재 값에 더하는 update로 처리한다
+        // flash sale 중인 상품이면 커밋 후에 메모리 재고에도 더해준다 (flash sale 전의 주문을 취소한 경우 포함)
+        for (OrderItem orderItem : order.getOrderItems()) {
+            Item item = orderItem.getItem();
+            itemRepository.addStock(item.getId(), orderItem.getCount());
+            restockFlashSaleAfterCommit(item.getId(), orderItem.getCount());
+            if(Hibernate.isInitialized(item)) {
+                itemRepository.refresh(item);
+            }
+        }
     }
 
-    // 검색
-    public List<Order> findOrders(OrderSearch orderSearch) {
-        return orderRepository.findAll(orderSearch);
+    /*
+     대량 주문 취소
+     cancelOrder를 주문마다 부르면 주문 조회 1번 + 주문 상품 N번 + 상품 M번의 쿼리가 나가고 상품마다 재고 update가 따로 나간다
+     1) 주문 row에 락을 잡고 (id 순서대로), 배송과 주문 상품을 fetch join으로 한번에 조회 (IN_CHUNK_SIZE 개씩 쿼리 2번)
+     2) 없는 주문이나 배송완료된 주문이 하나라도 있으면 아무것도 바꾸지 않고 예외
+     3) 상품별로 복구할 수량을 합쳐서 상품당 update 1번 (데드락을 피하기 위해 상품 id 순서대로)
+     주문 상태 변경은 변경 감지로 나가고 jdbc batch로 묶인다
+     이미 취소된 주문은 재고가 두번 복구되지 않도록 건너뛴다
+     -> 락 없이 읽으면 같은 주문을 동시에 취소하는 두 요청이 둘다 ORDER 상태를 보고 재고를 두번 복구한다
+        락을 잡으면 나중 요청은 먼저 요청이 커밋될 때까지 기다렸다가 CANCEL 상태를 보고 건너뛴다
+    */
+    @Transactional
+    public int cancelOrders(List<Long> orderIds) {
+        List<Long> distinctIds = orderIds.stream().distinct().sorted().collect(Collectors.toList());
+        List<Order> orders = new ArrayList<>();
+        for (int from = 0; from < distinctIds.size(); from += IN_CHUNK_SIZE) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + IN_CHUNK_SIZE, distinctIds.size()));
+            orders.addAll(orderRepository.lockAllByIds(chunk));
+            orderRepository.findAllWithDeliveryItems(chunk); // 잠근 주문에 배송, 주문 상품을 채운다
+        }
+
+        if(orders.size() != distinctIds.size()) {
+            Set<Long> foundIds = orders.stream().map(Order::getId).collect(Collectors.toSet());
+            List<Long> missingIds = distinctIds.stream()
+                    .filter(id -> !foundIds.contains(id))
+                    .collect(Collectors.toList());
+            throw new OrderNotFoundException("주문이 없습니다 orderIds=" + missingIds);
+        }
+
+        List<Long> completedOrderIds = orders.stream()
+                .filter(o -> o.getDelivery().getStatus() == DeliveryStatus.COMP)
+                .map(Order::getId)
+                .collect(Collectors.toList());
+        if(!completedOrderIds.isEmpty()) {
+            throw new IllegalStateException("배송완료된 상품은 취소가 불가능합니다 orderIds=" + completedOrderIds);
+        }
+
+        Map<Long, Integer> restockCounts = new TreeMap<>();
+        int canceled = 0;
+        for (Order order : orders) {
+            if(order.getStatus() == OrderStatus.CANCEL) {
+                continue;
+            }
+            order.cancelStatus();
+            for (OrderItem orderItem : order.getOrderItems()) {
+                restockCounts.merge(orderItem.getItem().getId(), orderItem.getCount(), Integer::sum);
+            }
+            canceled++;
+        }
+        if(canceled > 0) {
+            orderSearchCache.invalidateAfterCommit();
+            changeVersionTracker.bumpAfterCommit(ChangeVersionTracker.Resource.ORDERS);
+        }
+
+        for (Map.Entry<Long, Integer> restockCount : restockCounts.entrySet()) {
+            itemRepository.addStock(restockCount.getKey(), restockCount.getValue());
+            restockFlashSaleAfterCommit(restockCount.getKey(), restockCount.getValue());
+        }
+        return canceled;
+    }
+
+    /*
+     재고 차감
+     Item.removeStock은 메모리에서 읽고 -> 검사하고 -> 쓰기 때문에 동시에 같은 상품을 주문하면 둘다 검사를 통과해서 재고가 음수가 되거나
+     나중에 커밋한 쪽이 먼저 커밋한 쪽의 차감을 덮어써 버린다 (Item에 @Version이 없으므로 감지도 안됨)
+     조건부 update(stock_quantity >= ?)로 db에서 원자적으로 처리한다
+     select ... for update 처럼 조회 시점부터 잠그지 않고 update 시점부터 커밋까지만 row 락을 잡는다
+     update가 성공하면 영속성 컨텍스트의 item은 옛날 값이므로 refresh 해서 맞춰준다 (dirty checking으로 옛날 값을 덮어쓰지 않도록)
+    */
+    private void removeStock(Item item, int count) {
+        if(itemRepository.removeStock(item.getId(), count) == 0) {
+            throw new NotEnoughStockException("need more stock");
+        }
+        itemRepository.refresh(item);
+    }
+
+    /*
+     flash sale 중인 상품이면 메모리에서 재고를 확보한다 (FlashSaleStockAllocator)
+     리턴값 : flash sale 상품이면 true -> db 재고 차감을 건너뛴다
+     재고를 확보하지 못했는데 flash sale이 종료 중이면 false -> db 경로로 (종료가 잡은 item row 락에서 기다린다)
+     주문 트랜잭션이 롤백되면 확보했던 재고를 다시 돌려주고, 커밋/롤백이 끝나면 allocator에 알린다 (종료가 이걸 기다린다)
+    */
+    private boolean acquireFlashSaleStock(Long itemId, int count) {
+        if(!flashSaleStockAllocator.isActive(itemId)) {
+            return false;
+        }
+        if(!flashSaleStockAllocator.tryAcquire(itemId, count)) {
+            if(!flashSaleStockAllocator.isActive(itemId)) {
+                return false;
+            }
+            throw new NotEnoughStockException("sold out");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if(status != STATUS_COMMITTED) {
+                    flashSaleStockAllocator.release(itemId, count);
+                }
+                flashSaleStockAllocator.exit(itemId);
+            }
+        });
+        return true;
+    }
+
+    // 취소가 커밋된 다음에 메모리 재고에 더한다 (커밋 전에 더하면 롤백될 취소 때문에 재고가 팔려나갈 수 있다)
+    private void restockFlashSaleAfterCommit(Long itemId, int count) {
+        if(!flashSaleStockAllocator.isActive(itemId)) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                flashSaleStockAllocator.restock(itemId, count);
+            }
+        });
+    }
+
+    /*
+     읽기 전용 조회 (api v2, v3, v3-page, v3-cursor)
+     컨트롤러가 repository에서 엔티티를 받아서 dto로 바꾸면 트랜잭션 없이 open-in-view의 영속성 컨텍스트에서 읽게 되고
+     hibernate는 읽은 엔티티마다 변경 감지용 스냅샷을 만들어 둔다
+     readOnly 트랜잭션 안에서 읽고 dto 변환(지연 로딩 포함)까지 끝내서 돌려준다
+     -> 세션 기본값이 읽기 전용이 되어 지연 로딩된 엔티티까지 스냅샷이 없고, flush mode가 MANUAL이라 flush(변경 감지)도 없다
+     조회 쿼리에도 읽기 전용 hint를 준다 (OrderRepository)
+     mapper가 건드리는 연관 엔티티는 호출하는 쪽이 fetch plan으로 정해서 조회 쿼리에서 같이 읽는다 -> 트랜잭션 안에서도 N+1 지연 로딩이 없다
+    */
+    public <T> List<T> readOrders(OrderFetchPlan fetchPlan, Function<Order, T> mapper) {
+        return orderRepository.findAllByString(new OrderSearch(), fetchPlan).stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    public <T> List<T> readOrdersWithItem(Function<Order, T> mapper) {
+        return orderRepository.findAllWithItem().stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    // fetchPaths의 연관 엔티티만 같이 읽는다 (api의 fields 파라미터, OrderRepository.findAll 참고)
+    public <T> List<T> readOrders(List<String> fetchPaths, Function<Order, T> mapper) {
+        return orderRepository.findAll(fetchPaths).stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    public <T> List<T> readOrders(List<String> fetchPaths, int offset, int limit, Function<Order, T> mapper) {
+        return orderRepository.findAll(fetchPaths, offset, limit).stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    public <T> List<T> readOrdersWithMemberDelivery(Function<Order, T> mapper) {
+        return orderRepository.findAllWithMemberDelivery().stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    // 페이지의 주문 상품, 상품은 페이지의 id로 한번 더 읽어서 채운다 (withItems)
+    public <T> List<T> readOrdersWithMemberDelivery(int offset, int limit, Function<Order, T> mapper) {
+        return withItems(orderRepository.findAllWithMemberDelivery(offset, limit)).stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    public <T> List<T> readOrdersWithMemberDelivery(OrderCursor cursor, int limit, Function<Order, T> mapper) {
+        return withItems(orderRepository.findAllWithMemberDelivery(cursor, limit)).stream()
+                .map(mapper)
+                .collect(Collectors.toList());
+    }
+
+    /*
+     페이징한 주문의 id로 주문 상품까지 plan(ALL)으로 한 쿼리에 읽는다
+     같은 영속성 컨텍스트라 이미 읽은 주문에 주문 상품 컬렉션이 채워진다, 순서는 페이지 순서 그대로
+     default_batch_fetch_size 설정에 기대지 않고 페이지마다 쿼리 2번으로 끝난다
+    */
+    private List<Order> withItems(List<Order> orders) {
+        return orderRepository.findAllByIds(orders.stream().map(Order::getId).collect(Collectors.toList()), OrderFetchPlan.ALL);
+    }
+
+    public List<OrderSimpleQueryDto> findOrderDtos() {
+        return orderRepository.findOrderDtos();
+    }
+
+    /*
+     페이지 검색 (page는 0부터)
+     검색 결과 캐시(OrderSearchCache)에 페이지의 주문 id 목록이 있으면 검색 쿼리 대신 pk in 쿼리로 주문만 다시 읽는다
+     size + 1 건을 읽어서 한 건이 더 있으면 다음 페이지가 있는 것으로 본다 -> 다음 페이지 판단에 count가 필요 없다
+     전체 건수는 COUNT_LIMIT 건까지만 세고 검색 조건별로 캐시한다 -> 같은 검색의 페이지를 넘길 때는 다시 세지 않는다
+     주문과 연관 엔티티는 호출하는 쪽(화면)이 정한 fetch plan으로 한번에 읽는다 (open-in-view가 꺼져 있음)
+     페이지는 세는 건수(COUNT_LIMIT)까지만 넘길 수 있다, 그 뒤를 달라고 하면 마지막 페이지를 준다
+     -> page * size가 int 범위를 넘어 음수 offset이 되는 일이 없고, db가 offset 만큼 읽고 버리는 양도 COUNT_LIMIT 건을 넘지 않는다
+    */
+    public OrderPage findOrders(OrderSearch orderSearch, int page, int size, OrderFetchPlan fetchPlan) {
+        if(page < 0 || size < 1) {
+            throw new IllegalArgumentException("page는 0 이상, size는 1 이상이어야 합니다 page=" + page + ", size=" + size);
+        }
+        int lastPage = COUNT_LIMIT / size;
+        page = Math.min(page, lastPage);
+
+        OrderSearchCache.Key key = OrderSearchCache.Key.of(orderSearch, page, size);
+        long generation = orderSearchCache.generation();
+
+        List<Long> orderIds = orderSearchCache.get(key);
+        if(orderIds == null) {
+            orderIds = orderSearchQueryRepository.findPageIds(orderSearch, page * size, size + 1);
+            orderSearchCache.put(key, orderIds, generation);
+        }
+        boolean more = orderIds.size() > size;
+        List<Order> orders = orderRepository.findAllByIds(more ? orderIds.subList(0, size) : orderIds, fetchPlan);
+        boolean hasNext = more && page < lastPage;
+
+        OrderSearchCache.Key countKey = OrderSearchCache.Key.of(orderSearch);
+        Long count = orderSearchCache.getCount(countKey);
+        if(count == null) {
+            count = (long) orderSearchQueryRepository.countUpTo(orderSearch, COUNT_LIMIT + 1);
+            orderSearchCache.putCount(countKey, count, generation);
+        }
+
+        boolean exact = count <= COUNT_LIMIT;
+        return new OrderPage(orders, page, size, hasNext, exact ? count : COUNT_LIMIT, exact);
     }
 
 }
@@ -0,0 +1,9 @@
+package jpabook.jpashop;
+
+/*
+ 벤치마크 표시용 (JUnit @Category)
+ 기본 test에서는 빠지고 ./gradlew benchmark 로만 돌린다 (build.gradle)
+ 측정값 출력(printf)은 이 카테고리의 테스트에서만 한다
+*/
+public interface Benchmark {
+}
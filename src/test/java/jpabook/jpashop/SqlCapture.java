@@ -0,0 +1,36 @@
+package jpabook.jpashop;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ hibernate가 jdbc로 보내는 sql을 그대로 받아둔다 (테스트 application.yml의 statement_inspector)
+ hibernate가 직접 생성하므로 상태는 static, capture를 부른 스레드에서 나간 sql만 모은다
+*/
+public class SqlCapture implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> captured = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        List<String> statements = captured.get();
+        if (statements != null) {
+            statements.add(sql);
+        }
+        return sql;
+    }
+
+    public static List<String> capture(Supplier<?> work) {
+        List<String> statements = new ArrayList<>();
+        captured.set(statements);
+        try {
+            work.get();
+        } finally {
+            captured.remove();
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,160 @@
+package jpabook.jpashop;
+
+import jpabook.jpashop.domain.Address;
+import jpabook.jpashop.domain.Delivery;
+import jpabook.jpashop.domain.DeliveryStatus;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderItem;
+import jpabook.jpashop.domain.item.Book;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.function.Supplier;
+
+/*
+ 테스트 데이터 (회원, 상품, 주문) 생성
+ member, book, order는 em.persist만 하므로 트랜잭션 안에서 부른다 (@Transactional 테스트 또는 committed)
+ 주문 상품은 재고를 건드리지 않는 createReservedOrderItem으로 만든다 -> 재고가 줄어야 하면 OrderService로 주문한다
+*/
+@Component
+public class TestFixtures {
+
+    private final EntityManager em;
+    private final TransactionTemplate tx;
+
+    public TestFixtures(EntityManager em, PlatformTransactionManager transactionManager) {
+        this.em = em;
+        this.tx = new TransactionTemplate(transactionManager);
+    }
+
+    public Member member(String name) {
+        Member member = new Member();
+        member.setName(name);
+        member.setAddress(new Address("서울시", "국제금융로", "123-123"));
+        em.persist(member);
+        return member;
+    }
+
+    public Book book(String name, int price, int stockQuantity) {
+        Book book = new Book();
+        book.setName(name);
+        book.setPrice(price);
+        book.setStockQuantity(stockQuantity);
+        em.persist(book);
+        return book;
+    }
+
+    public Order order(Member member, Book book, int count) {
+        return order(member, new Book[]{book}, new int[]{count});
+    }
+
+    // i번째 상품은 i + 1개
+    public Order order(Member member, Book... books) {
+        int[] counts = new int[books.length];
+        for (int i = 0; i < books.length; i++) {
+            counts[i] = i + 1;
+        }
+        return order(member, books, counts);
+    }
+
+    private Order order(Member member, Book[] books, int[] counts) {
+        OrderItem[] orderItems = new OrderItem[books.length];
+        for (int i = 0; i < books.length; i++) {
+            orderItems[i] = OrderItem.createReservedOrderItem(books[i], books[i].getPrice(), counts[i]);
+        }
+        Delivery delivery = new Delivery();
+        delivery.setAddress(member.getAddress());
+        delivery.setStatus(DeliveryStatus.READY);
+        Order order = Order.createOrder(member, delivery, orderItems);
+        em.persist(order);
+        return order;
+    }
+
+    // 별도 트랜잭션에서 만들고 커밋한다 (@Transactional이 없는 테스트, 다른 스레드나 요청에서 읽어야 하는 데이터)
+    public <T> T committed(Supplier<T> work) {
+        return tx.execute(status -> work.get());
+    }
+
+    /*
+     hibernate 통계를 켜고, close 할 때 원래 상태로 되돌린다 (generate_statistics는 기본으로 꺼져 있다)
+     try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) { ... stats.get() ... }
+    */
+    public EnabledStatistics statistics() {
+        return new EnabledStatistics(em.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics());
+    }
+
+    public static class EnabledStatistics implements AutoCloseable {
+
+        private final Statistics statistics;
+        private final boolean previouslyEnabled;
+
+        EnabledStatistics(Statistics statistics) {
+            this.statistics = statistics;
+            this.previouslyEnabled = statistics.isStatisticsEnabled();
+            statistics.setStatisticsEnabled(true);
+            statistics.clear();
+        }
+
+        public Statistics get() {
+            return statistics;
+        }
+
+        @Override
+        public void close() {
+            statistics.setStatisticsEnabled(previouslyEnabled);
+        }
+    }
+
+    /*
+     벤치마크용 대량 데이터
+     db의 주문(주문 상품)이 target 개가 될 때까지 모자란 만큼만 만든다
+     members 명의 회원이 돌아가며 주문하고, 1000 주문마다 flush + clear
+    */
+    public void seedOrders(int targetOrders, int itemsPerOrder, int members) {
+        long existing = committed(() -> em.createQuery("select count(o) from Order o", Long.class).getSingleResult());
+        createOrders((int) Math.max(0, targetOrders - existing), itemsPerOrder, members);
+    }
+
+    public void seedOrderItems(int targetOrderItems, int itemsPerOrder) {
+        long existing = committed(() -> em.createQuery("select count(oi) from OrderItem oi", Long.class).getSingleResult());
+        createOrders((int) Math.max(0, (targetOrderItems - existing + itemsPerOrder - 1) / itemsPerOrder), itemsPerOrder, 1);
+    }
+
+    private void createOrders(int orders, int itemsPerOrder, int memberCount) {
+        if (orders == 0) {
+            return;
+        }
+        committed(() -> {
+            Member[] members = new Member[memberCount];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = new Member();
+                members[i].setName("bench-" + i + "-" + System.nanoTime());
+                members[i].setAddress(new Address("서울시", "국제금융로 " + i, "123-123"));
+                em.persist(members[i]);
+            }
+            Book[] books = new Book[itemsPerOrder];
+            for (int i = 0; i < books.length; i++) {
+                books[i] = book("bench book " + i, 1000 * (i + 1), 100);
+            }
+            for (int i = 0; i < orders; i++) {
+                order(members[i % members.length], books);
+                if ((i + 1) % 1000 == 0) {
+                    em.flush();
+                    em.clear();
+                    for (int j = 0; j < members.length; j++) {
+                        members[j] = em.getReference(Member.class, members[j].getId());
+                    }
+                    for (int j = 0; j < books.length; j++) {
+                        books[j] = em.getReference(Book.class, books[j].getId());
+                    }
+                }
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,102 @@
+package jpabook.jpashop.api;
+
+import jpabook.jpashop.TestFixtures;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ 목록 api의 조건부 GET과 응답 압축 (ConditionalGet, server.compression)
+ 압축은 tomcat이 하므로 MockMvc가 아니라 실제 서버에 http로 요청한다
+ 요청이 자기 트랜잭션으로 읽으므로 테스트 데이터가 커밋되어 있어야 한다 -> @Transactional을 붙이지 않았다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ConditionalGetApiTest {
+
+    private static final String CBOR = "application/cbor";
+
+    @Autowired TestRestTemplate restTemplate;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 응답_형식마다_다른_약한_ETag() throws Exception {
+        // when
+        ResponseEntity<byte[]> json = get("/api/v4/orders", "application/json", null, null);
+        ResponseEntity<byte[]> cbor = get("/api/v4/orders", CBOR, null, null);
+        String eTag = json.getHeaders().getETag();
+
+        // then
+        assertTrue("약한 ETag여야 tomcat이 압축한다 : " + eTag, eTag.startsWith("W/"));
+        assertNotEquals("형식이 다르면 ETag도 다르다", eTag, cbor.getHeaders().getETag());
+        assertTrue(json.getHeaders().getVary().contains(HttpHeaders.ACCEPT));
+
+        assertEquals(HttpStatus.NOT_MODIFIED, get("/api/v4/orders", "application/json", eTag, null).getStatusCode());
+        ResponseEntity<byte[]> other = get("/api/v4/orders", CBOR, eTag, null);
+        assertEquals("json의 ETag로 cbor를 재사용하면 안된다", HttpStatus.OK, other.getStatusCode());
+        assertArrayEquals(cbor.getBody(), other.getBody());
+    }
+
+    @Test
+    public void gzip을_받는_클라이언트에는_압축해서_보낸다() throws Exception {
+        // given : 목록이 min-response-size(2048 bytes)보다 크도록 회원을 만든다
+        fixtures.committed(() -> {
+            for (int i = 0; i < 100; i++) {
+                fixtures.member("gzip-" + i + "-" + System.nanoTime());
+            }
+            return null;
+        });
+
+        // when
+        ResponseEntity<byte[]> plain = get("/api/v2/members", "application/json", null, null);
+        ResponseEntity<byte[]> gzip = get("/api/v2/members", "application/json", null, "gzip");
+
+        // then
+        assertEquals(HttpStatus.OK, gzip.getStatusCode());
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("ETag는 압축 여부와 상관없이 같다", plain.getHeaders().getETag(), gzip.getHeaders().getETag());
+        assertTrue(gzip.getHeaders().getVary().contains(HttpHeaders.ACCEPT));
+        assertTrue("압축한 쪽이 작아야 한다", gzip.getBody().length < plain.getBody().length);
+        assertArrayEquals("풀면 압축하지 않은 응답과 같다", plain.getBody(), gunzip(gzip.getBody()));
+
+        ResponseEntity<byte[]> notModified = get("/api/v2/members", "application/json", gzip.getHeaders().getETag(), "gzip");
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    }
+
+    private ResponseEntity<byte[]> get(String uri, String accept, String ifNoneMatch, String acceptEncoding) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT, accept);
+        if (ifNoneMatch != null) {
+            headers.setIfNoneMatch(ifNoneMatch);
+        }
+        if (acceptEncoding != null) {
+            headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+    }
+
+    private byte[] gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return StreamUtils.copyToByteArray(in);
+        }
+    }
+
+}
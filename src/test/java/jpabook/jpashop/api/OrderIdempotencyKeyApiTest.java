@@ -0,0 +1,47 @@
+package jpabook.jpashop.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ Idempotency-Key 헤더 검사
+ 주문 전에 거절해야 하므로 db에 있는 회원, 상품이 아니어도 된다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OrderIdempotencyKeyApiTest {
+
+    private static final String BODY = "{\"memberId\":1,\"orderLines\":[{\"itemId\":1,\"count\":1}]}";
+
+    @Autowired MockMvc mockMvc;
+
+    @Test
+    public void 컬럼보다_긴_키는_400() throws Exception {
+        String key = new String(new char[101]).replace('\0', 'k');
+        for (String uri : new String[]{"/api/v1/orders", "/api/v1/orders/queued"}) {
+            mockMvc.perform(post(uri).header("Idempotency-Key", key)
+                    .contentType(MediaType.APPLICATION_JSON).content(BODY))
+                    .andExpect(status().isBadRequest());
+        }
+    }
+
+    @Test
+    public void 비어_있거나_출력할_수_없는_문자가_있는_키는_400() throws Exception {
+        for (String key : new String[]{"", "a b", "키"}) {
+            mockMvc.perform(post("/api/v1/orders").header("Idempotency-Key", key)
+                    .contentType(MediaType.APPLICATION_JSON).content(BODY))
+                    .andExpect(status().isBadRequest());
+        }
+    }
+
+}
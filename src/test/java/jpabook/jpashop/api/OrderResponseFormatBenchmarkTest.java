@@ -0,0 +1,150 @@
+package jpabook.jpashop.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.repository.order.query.OrderFlatColumns;
+import jpabook.jpashop.repository.order.query.OrderFlatDto;
+import jpabook.jpashop.repository.order.query.OrderQueryRepository;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ 주문 api 응답 형식별 크기와 만드는 시간 (json, smile, cbor) x (v6 flat, v6-columnar)
+ gzip은 압축 후 크기만 본다 (server.compression)
+ 벤치마크의 주문 수는 ./gradlew benchmark -Dbench.format-orders=10000, 반복 횟수는 -Dbench.iterations=20 처럼 넘긴다
+ 조회한 결과를 만드는 시간만 재고 db 조회 시간은 빼기 위해 결과를 한번 읽어두고 반복해서 인코딩한다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OrderResponseFormatBenchmarkTest {
+
+    private static final int ORDERS = Integer.getInteger("bench.format-orders", 2000);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 20);
+    private static final int ITEMS_PER_ORDER = 3;
+
+    @Autowired OrderQueryRepository orderQueryRepository;
+    @Autowired ObjectMapper objectMapper;
+    @Autowired MappingJackson2SmileHttpMessageConverter smileConverter;
+    @Autowired MappingJackson2CborHttpMessageConverter cborConverter;
+    @Autowired MockMvc mockMvc;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void accept_헤더로_형식_선택() throws Exception {
+        mockMvc.perform(get("/api/v6-columnar/orders").header(HttpHeaders.ACCEPT, "application/x-jackson-smile"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-jackson-smile"));
+        mockMvc.perform(get("/api/v4/orders").header(HttpHeaders.ACCEPT, "application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"));
+        mockMvc.perform(get("/api/v6/orders"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/json"));
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void 응답_형식별_크기와_인코딩_시간() throws Exception {
+        // given
+        fixtures.seedOrders(ORDERS, ITEMS_PER_ORDER, 100);
+        List<OrderFlatDto> flat = orderQueryRepository.findAllByDto_flat();
+        OrderFlatColumns columns = orderQueryRepository.findAllByDto_columnar();
+        assertEquals("컬럼으로 바꿔도 같은 내용", rows(flat), rows(columns));
+
+        // when, then
+        long flatJson = measure("json", "flat", objectMapper, flat);
+        long columnarJson = measure("json", "columnar", objectMapper, columns);
+        long flatSmile = measure("smile", "flat", smileConverter.getObjectMapper(), flat);
+        measure("smile", "columnar", smileConverter.getObjectMapper(), columns);
+        measure("cbor", "flat", cborConverter.getObjectMapper(), flat);
+        measure("cbor", "columnar", cborConverter.getObjectMapper(), columns);
+
+        assertTrue("컬럼 모양은 회원명, 주소가 반복되지 않으므로 작다", columnarJson < flatJson);
+        assertTrue("smile은 필드 이름을 반복하지 않으므로 작다", flatSmile < flatJson);
+    }
+
+    private long measure(String format, String layout, ObjectMapper mapper, Object body) throws Exception {
+        for (int i = 0; i < ITERATIONS / 4 + 1; i++) { // 워밍업
+            mapper.writeValue(new CountingOutputStream(), body);
+        }
+
+        CountingOutputStream out = new CountingOutputStream();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            out.bytes = 0;
+            mapper.writeValue(out, body);
+        }
+        long nanos = System.nanoTime() - start;
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            mapper.writeValue(gzip, body);
+        }
+
+        System.out.printf("[bench] %-5s %-8s %10d bytes %10d gzip bytes %8.2f ms/encode%n",
+                format, layout, out.bytes, gzipped.size(), nanos / 1_000_000.0 / ITERATIONS);
+        return out.bytes;
+    }
+
+    // 주문 상품 한 줄을 "회원명|상품명|수량" 으로 풀어서 비교한다 (v6는 정렬이 없으므로 정렬해서)
+    private List<String> rows(List<OrderFlatDto> flat) {
+        List<String> rows = new ArrayList<>();
+        for (OrderFlatDto row : flat) {
+            rows.add(row.getName() + "|" + row.getItemName() + "|" + row.getCount());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private List<String> rows(OrderFlatColumns columns) {
+        List<String> rows = new ArrayList<>();
+        OrderFlatColumns.Items items = columns.getItems();
+        for (int i = 0; i < items.getOrder().length; i++) {
+            int order = items.getOrder()[i];
+            rows.add(columns.getNames().get(columns.getOrders().getName()[order]) + "|"
+                    + columns.getItemNames().get(items.getItemName()[i]) + "|" + items.getCount()[i]);
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    // 응답 대신 byte 수만 센다
+    static class CountingOutputStream extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+}
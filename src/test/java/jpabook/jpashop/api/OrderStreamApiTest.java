@@ -0,0 +1,150 @@
+package jpabook.jpashop.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.domain.item.Book;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ v6 streaming 응답
+ 커서는 트랜잭션이 끝나야 닫히므로 실제로 커밋된 데이터로 본다 (@Transactional을 붙이지 않았다)
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OrderStreamApiTest {
+
+    @Autowired MockMvc mockMvc;
+    @Autowired ObjectMapper objectMapper;
+    @Autowired OrderApiController orderApiController;
+    @Autowired DataSource dataSource;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void ndjson_스트림은_v6와_같은_row() throws Exception {
+        // given
+        seedOrders();
+
+        // when
+        String json = mockMvc.perform(get("/api/v6/orders"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        String ndjson = mockMvc.perform(get("/api/v6-stream/orders").param("format", "ndjson"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        // then
+        List<String> v6Rows = new ArrayList<>();
+        for (JsonNode row : objectMapper.readTree(json)) {
+            v6Rows.add(row.toString());
+        }
+        List<String> streamRows = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            if (!line.isEmpty()) {
+                streamRows.add(objectMapper.readTree(line).toString());
+            }
+        }
+        // v6는 정렬이 없으므로 정렬해서 비교한다
+        Collections.sort(v6Rows);
+        Collections.sort(streamRows);
+        assertFalse(v6Rows.isEmpty());
+        assertEquals("한 줄에 주문 상품 하나씩, v6와 같은 내용", v6Rows, streamRows);
+    }
+
+    @Test
+    public void 클라이언트가_끊으면_커서를_닫고_커넥션을_돌려준다() throws Exception {
+        // given
+        seedOrders();
+        MockHttpServletResponse disconnected = new MockHttpServletResponse() {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return new BrokenOutputStream();
+            }
+        };
+
+        // when
+        try {
+            orderApiController.orderV6_stream("ndjson", disconnected);
+            fail("응답을 쓰지 못하면 예외가 발생해야 한다");
+        } catch (UncheckedIOException e) {
+            // 첫 row를 쓰다가 끊긴다
+        }
+
+        // then
+        assertEquals("커서를 닫고 트랜잭션이 끝나서 커넥션이 풀로 돌아와야 한다", 0, activeConnections());
+    }
+
+    private void seedOrders() {
+        fixtures.committed(() -> {
+            Member member = fixtures.member("stream-" + System.nanoTime());
+            Book first = fixtures.book("stream item1", 1000, 100);
+            Book second = fixtures.book("stream item2", 2000, 100);
+            fixtures.order(member, first, second);
+            fixtures.order(member, first, 3);
+            return null;
+        });
+    }
+
+    // 스케줄러(flash sale flush, idempotency key 삭제)가 잠깐 커넥션을 쓸 수 있으므로 잠시 기다려본다
+    private int activeConnections() throws Exception {
+        HikariDataSource hikari = dataSource.unwrap(HikariDataSource.class);
+        int active = hikari.getHikariPoolMXBean().getActiveConnections();
+        for (int i = 0; i < 100 && active > 0; i++) {
+            Thread.sleep(10);
+            active = hikari.getHikariPoolMXBean().getActiveConnections();
+        }
+        return active;
+    }
+
+    // 연결이 끊긴 클라이언트, 쓰기만 하면 예외
+    static class BrokenOutputStream extends ServletOutputStream {
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throw new IOException("Broken pipe");
+        }
+    }
+
+}
@@ -0,0 +1,49 @@
+package jpabook.jpashop.cache;
+
+import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.repository.OrderSearch;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OrderSearchCacheTest {
+
+    OrderSearchCache orderSearchCache = new OrderSearchCache(100, 60);
+
+    @Test
+    public void 같은_검색조건은_캐시에서_조회() throws Exception {
+        // given
+        OrderSearch blankName = new OrderSearch();
+        blankName.setMemberName("  ");
+        blankName.setOrderStatus(OrderStatus.ORDER);
+        OrderSearch noName = new OrderSearch();
+        noName.setOrderStatus(OrderStatus.ORDER);
+        List<Long> orderIds = Arrays.asList(3L, 1L, 2L);
+
+        // when
+        orderSearchCache.put(OrderSearchCache.Key.of(blankName), orderIds, orderSearchCache.generation());
+
+        // then
+        assertEquals("공백 회원명은 조건 없음과 같은 키", orderIds, orderSearchCache.get(OrderSearchCache.Key.of(noName)));
+        assertEquals(1, orderSearchCache.getHitCount());
+    }
+
+    @Test
+    public void 검색중에_무효화되면_저장하지_않음() throws Exception {
+        // given
+        OrderSearchCache.Key key = OrderSearchCache.Key.of(new OrderSearch());
+        long generation = orderSearchCache.generation();
+
+        // when
+        orderSearchCache.invalidateAfterCommit(); // 트랜잭션 밖이라 바로 비워진다 (= 검색 도중에 다른 주문이 커밋됨)
+        orderSearchCache.put(key, Arrays.asList(1L, 2L), generation);
+
+        // then
+        assertNull("무효화 이전에 시작한 검색 결과는 캐시하지 않는다", orderSearchCache.get(key));
+    }
+
+}
@@ -0,0 +1,66 @@
+package jpabook.jpashop.controller;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.monitor.ConnectionUsageTracker;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ 요청이 커넥션을 잡고 있는 시간, open-in-view를 켰을 때와 껐을 때 (OsivOffConnectionHoldTimeTest, OsivOnConnectionHoldTimeTest)
+ 켜져 있으면 화면/json을 다 그릴 때까지, 꺼져 있으면 서비스 트랜잭션이 끝날 때까지 잡는다
+ 반복 횟수는 ./gradlew benchmark -Dbench.iterations=200 처럼 넘긴다
+ 평균/최대 시간은 풀 전체 기준이라 그 사이에 돈 스케줄러(flash sale flush 등)의 커넥션도 섞인다
+*/
+public abstract class ConnectionHoldTimeBenchmark {
+
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 200);
+
+    private static final String[] URIS = {
+            "/orders", "/api/v1/orders", "/api/v3/orders", "/api/v1/simple-orders", "/api/v3/simple-orders"};
+
+    @Autowired MockMvc mockMvc;
+    @Autowired TestFixtures fixtures;
+    @Autowired ConnectionUsageTracker connectionUsageTracker;
+
+    @Value("${spring.jpa.open-in-view}")
+    boolean openInView;
+
+    @Test
+    @Category(Benchmark.class)
+    public void 요청별_커넥션_점유_시간() throws Exception {
+        // given
+        String memberName = "hold-" + System.nanoTime();
+        fixtures.committed(() -> fixtures.order(fixtures.member(memberName),
+                fixtures.book("점유 JPA " + memberName, 10000, 100), 2));
+
+        for (String uri : URIS) {
+            for (int i = 0; i < ITERATIONS / 4 + 1; i++) { // 워밍업
+                mockMvc.perform(get(uri)).andExpect(status().isOk());
+            }
+
+            // when
+            ConnectionUsageTracker.ThreadCounts before = connectionUsageTracker.currentThread();
+            connectionUsageTracker.reset();
+            for (int i = 0; i < ITERATIONS; i++) {
+                mockMvc.perform(get(uri)).andExpect(status().isOk());
+            }
+            ConnectionUsageTracker.Stats stats = connectionUsageTracker.stats();
+            ConnectionUsageTracker.ThreadCounts after = connectionUsageTracker.currentThread();
+
+            // then
+            assertEquals(uri + " 요청이 빌린 커넥션은 모두 돌아와 있어야 한다",
+                    after.getAcquiredCount() - before.getAcquiredCount(), after.getReturnedCount() - before.getReturnedCount());
+            System.out.printf("[bench] osiv %-3s %-24s %6d borrowed avg %6.2f ms max %4d ms%n",
+                    openInView ? "on" : "off", uri, stats.getBorrowedCount(), stats.getAvgUsageMillis(), stats.getMaxUsageMillis());
+        }
+    }
+
+}
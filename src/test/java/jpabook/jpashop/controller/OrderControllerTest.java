@@ -0,0 +1,169 @@
+package jpabook.jpashop.controller;
+
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.Delivery;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.monitor.ConnectionUsageTracker;
+import jpabook.jpashop.service.MemberService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+
+import javax.persistence.EntityManagerFactory;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ open-in-view를 끈 상태에서 화면과 api가 fetch plan 밖의 지연 로딩 없이 그려지는지 확인
+ 트랜잭션 밖에서 지연 로딩을 하면 LazyInitializationException -> 500 으로 실패한다
+ 회원, 배송, 상품은 2차 캐시(ehcache)에 있으면 지연 로딩해도 db를 읽지 않아서 통계에 안 잡힌다 -> 요청마다 2차 캐시를 비운다
+ 요청이 끝나면 요청 스레드가 빌린 커넥션은 모두 풀로 돌아와 있어야 한다
+ 요청이 자기 트랜잭션으로 읽으므로 테스트 데이터가 커밋되어 있어야 한다 -> @Transactional을 붙이지 않았다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+public class OrderControllerTest {
+
+    @Autowired MockMvc mockMvc;
+    @Autowired TestFixtures fixtures;
+    @Autowired ConnectionUsageTracker connectionUsageTracker;
+    @Autowired MemberService memberService;
+    @Autowired EntityManagerFactory emf;
+
+    @Test
+    public void 주문목록_화면은_fetch_plan_밖에서_로딩하지_않는다() throws Exception {
+        // given
+        String memberName = "osiv-" + System.nanoTime();
+        fixtures.committed(() -> fixtures.order(fixtures.member(memberName),
+                fixtures.book("시골 JPA " + memberName, 10000, 100), 2));
+
+        long entityFetches;
+        long collectionFetches;
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            // when
+            performReturningConnections("/orders", get("/orders").param("memberName", memberName))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(containsString("시골 JPA " + memberName)));
+            entityFetches = stats.get().getEntityFetchCount();
+            collectionFetches = stats.get().getCollectionFetchCount();
+        }
+
+        // then
+        assertEquals("회원, 배송은 fetch plan으로 같이 읽어야 한다", 0, entityFetches);
+        assertEquals("주문 상품은 fetch plan으로 같이 읽어야 한다", 0, collectionFetches);
+    }
+
+    @Test
+    public void api는_트랜잭션_밖에서_지연로딩하지_않는다() throws Exception {
+        String[] uris = {
+                "/api/v1/orders", "/api/v2/orders", "/api/v3/orders", "/api/v3-page/orders", "/api/v3-cursor/orders",
+                "/api/v1/simple-orders", "/api/v2/simple-orders", "/api/v3/simple-orders"};
+
+        // given
+        String memberName = "api-" + System.nanoTime();
+        fixtures.committed(() -> fixtures.order(fixtures.member(memberName),
+                fixtures.book("api JPA " + memberName, 10000, 100), 2));
+
+        for (String uri : uris) {
+            long entityFetches;
+            long collectionFetches;
+            try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+                // when
+                performReturningConnections(uri, get(uri)).andExpect(status().isOk());
+                entityFetches = stats.get().getEntityFetchCount();
+                collectionFetches = stats.get().getCollectionFetchCount();
+            }
+
+            // then
+            assertEquals(uri + " 회원, 배송, 상품은 fetch plan으로 같이 읽어야 한다", 0, entityFetches);
+            assertEquals(uri + " 주문 상품은 fetch plan으로 같이 읽어야 한다", 0, collectionFetches);
+        }
+    }
+
+    @Test
+    public void fields로_요청하지_않은_연관_엔티티는_읽지_않는다() throws Exception {
+        String json;
+        long memberLoads;
+        long deliveryLoads;
+        emf.getCache().evictAll();
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            // when
+            json = mockMvc.perform(get("/api/v3/orders").param("fields", "orderId,orderStatus,orderItems.itemName"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            memberLoads = stats.get().getEntityStatistics(Member.class.getName()).getLoadCount();
+            deliveryLoads = stats.get().getEntityStatistics(Delivery.class.getName()).getLoadCount();
+        }
+
+        // then
+        assertFalse("요청하지 않은 필드는 json에 없다", json.contains("\"address\"") || json.contains("\"orderPrice\""));
+        assertEquals("회원은 join도 지연 로딩도 하지 않는다", 0, memberLoads);
+        assertEquals("배송은 join도 지연 로딩도 하지 않는다", 0, deliveryLoads);
+
+        mockMvc.perform(get("/api/v3/orders").param("fields", "orderId,password"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void 목록이_바뀌지_않았으면_db를_읽지_않고_304() throws Exception {
+        // given
+        MvcResult first = mockMvc.perform(get("/api/v2/members"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn();
+        String eTag = first.getResponse().getHeader(HttpHeaders.ETAG);
+        String lastModified = first.getResponse().getHeader(HttpHeaders.LAST_MODIFIED);
+
+        // when, then
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            mockMvc.perform(get("/api/v2/members").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                    .andExpect(status().isNotModified());
+            mockMvc.perform(get("/api/v2/members").header(HttpHeaders.IF_MODIFIED_SINCE, lastModified))
+                    .andExpect(status().isNotModified());
+            assertEquals("304는 db를 읽지 않는다", 0, stats.get().getPrepareStatementCount());
+        }
+
+        Member member = new Member();
+        member.setName("etag-" + System.nanoTime());
+        memberService.join(member);
+        mockMvc.perform(get("/api/v2/members").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString(member.getName())));
+    }
+
+    /*
+     2차 캐시를 비우고 요청한 뒤 요청 스레드가 빌린 커넥션을 모두 돌려줬는지 확인한다
+     MockMvc는 테스트 스레드에서 요청을 처리하므로 테스트 스레드의 빌린 수와 돌려준 수를 비교한다
+    */
+    private ResultActions performReturningConnections(String uri, RequestBuilder request) throws Exception {
+        emf.getCache().evictAll();
+        ConnectionUsageTracker.ThreadCounts before = connectionUsageTracker.currentThread();
+
+        ResultActions result = mockMvc.perform(request);
+
+        ConnectionUsageTracker.ThreadCounts after = connectionUsageTracker.currentThread();
+        long acquired = after.getAcquiredCount() - before.getAcquiredCount();
+        long returned = after.getReturnedCount() - before.getReturnedCount();
+        assertTrue(uri + " 요청은 db를 읽어야 한다", acquired > 0);
+        assertEquals(uri + " 요청이 빌린 커넥션은 응답 전에 모두 돌아와 있어야 한다", acquired, returned);
+        return result;
+    }
+
+}
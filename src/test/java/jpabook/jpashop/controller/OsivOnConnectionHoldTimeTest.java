@@ -0,0 +1,13 @@
+package jpabook.jpashop.controller;
+
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+// open-in-view를 켠 상태의 커넥션 점유 시간 (ConnectionHoldTimeBenchmark)
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.jpa.open-in-view=true")
+@AutoConfigureMockMvc
+public class OsivOnConnectionHoldTimeTest extends ConnectionHoldTimeBenchmark {
+}
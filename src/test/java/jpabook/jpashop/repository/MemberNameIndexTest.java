@@ -0,0 +1,77 @@
+package jpabook.jpashop.repository;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemberNameIndexTest {
+
+    @Test
+    public void 이름_조각으로_회원_찾기() throws Exception {
+        // given
+        MemberNameIndex index = new MemberNameIndex(true);
+        index.rebuild(Arrays.asList(
+                new Object[]{1L, "김영한"},
+                new Object[]{2L, "김영희"},
+                new Object[]{3L, "Kim Younghan"}));
+
+        // when, then
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), index.findIds("김영"));
+        assertEquals(Collections.singleton(1L), index.findIds("영한"));
+        assertEquals("대소문자는 구분하지 않는다", Collections.singleton(3L), index.findIds("younghan"));
+        assertTrue(index.findIds("이순신").isEmpty());
+        assertTrue(index.isComplete());
+    }
+
+    @Test
+    public void rebuild_전이나_여러_인스턴스면_완전하지_않다() throws Exception {
+        // given
+        MemberNameIndex notRebuilt = new MemberNameIndex(true);
+        MemberNameIndex otherInstances = new MemberNameIndex(false);
+
+        // when
+        notRebuilt.indexInTransaction(1L, "회원이름");
+        otherInstances.rebuild(Collections.singletonList(new Object[]{1L, "회원이름"}));
+
+        // then
+        assertFalse(notRebuilt.isComplete());
+        assertFalse(otherInstances.isComplete());
+    }
+
+    @Test
+    public void rebuild는_그_사이에_들어온_회원을_지우지_않는다() throws Exception {
+        // given
+        // 시작 중에 가입한 회원, rebuild가 읽어온 목록에는 없다
+        MemberNameIndex index = new MemberNameIndex(true);
+        index.indexInTransaction(2L, "방금가입");
+
+        // when
+        index.rebuild(Collections.singletonList(new Object[]{1L, "회원이름"}));
+
+        // then
+        assertEquals(Collections.singleton(2L), index.findIds("방금가입"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void 이름_변경시_이전_이름은_빠진다() throws Exception {
+        // given
+        MemberNameIndex index = new MemberNameIndex(true);
+        index.indexInTransaction(1L, "회원이름");
+
+        // when
+        index.indexInTransaction(1L, "새이름");
+
+        // then
+        assertEquals(Collections.singleton(1L), index.findIds("새이름"));
+        assertTrue(index.findIds("회원이름").isEmpty());
+        assertEquals(1, index.size());
+    }
+
+}
@@ -0,0 +1,127 @@
+package jpabook.jpashop.repository;
+
+import jpabook.jpashop.SqlCapture;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.DeliveryStatus;
+import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.repository.order.query.OrderSearchQueryRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ 주문 검색 조건 조합별 실행 계획 확인 (H2 EXPLAIN)
+ OrderRepository.findAll(querydsl)과 OrderSearchQueryRepository.findAll(named query)이 실제로 보내는 sql을 받아서 (SqlCapture)
+ orders 전체를 읽지 않고(tableScan) 엔티티에 선언한 인덱스를 타는지 본다
+ 운영에서처럼 prepared statement의 계획을 보는 것이므로 파라미터 값은 계획에 영향이 없다 -> 전부 null로 묶는다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderSearchIndexTest {
+
+    private static final LocalDate FROM = LocalDate.of(2020, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2020, 1, 31);
+
+    @Autowired OrderRepository orderRepository;
+    @Autowired OrderSearchQueryRepository orderSearchQueryRepository;
+    @Autowired JdbcTemplate jdbcTemplate;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 주문상태_주문일() throws Exception {
+        OrderSearch orderSearch = dateRange();
+        orderSearch.setOrderStatus(OrderStatus.ORDER);
+        assertUsesIndex("IDX_ORDERS_STATUS_ORDER_DATE", orderSearch);
+    }
+
+    @Test
+    public void 회원_주문일() throws Exception {
+        // 회원명 검색은 이름 색인에서 찾은 후보 회원 id 조건이 같이 붙는다 -> 색인에 후보가 있도록 회원을 만든다
+        String memberName = "계획회원" + System.nanoTime();
+        fixtures.committed(() -> fixtures.member(memberName));
+        OrderSearch orderSearch = dateRange();
+        orderSearch.setMemberName(memberName);
+        assertUsesIndex("IDX_ORDERS_MEMBER_ID_ORDER_DATE", orderSearch);
+    }
+
+    @Test
+    public void 주문일() throws Exception {
+        assertUsesIndex("IDX_ORDERS_ORDER_DATE_ID", dateRange());
+    }
+
+    @Test
+    public void 주문총액() throws Exception {
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMinTotalPrice(10000);
+        orderSearch.setMaxTotalPrice(50000);
+        assertUsesIndex("IDX_ORDERS_TOTAL_PRICE", orderSearch);
+    }
+
+    @Test
+    public void 배송상태() throws Exception {
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setDeliveryStatus(DeliveryStatus.READY);
+        assertUsesIndex("IDX_DELIVERY_STATUS", orderSearch);
+    }
+
+    @Test
+    public void 상품명() throws Exception {
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setItemName("JPA");
+        assertUsesIndex("IDX_ORDER_ITEM_ITEM_ID", orderSearch);
+    }
+
+    private OrderSearch dateRange() {
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setOrderDateFrom(FROM);
+        orderSearch.setOrderDateTo(TO);
+        return orderSearch;
+    }
+
+    private void assertUsesIndex(String index, OrderSearch orderSearch) {
+        assertPlan(index, searchSql(() -> orderRepository.findAll(orderSearch)));
+        assertPlan(index, searchSql(() -> orderSearchQueryRepository.findAll(orderSearch)));
+    }
+
+    private void assertPlan(String index, String sql) {
+        String plan = explain(sql);
+        assertTrue(index + " 인덱스를 타야 한다 : " + plan, plan.contains(index));
+        assertFalse("orders 전체를 읽으면 안된다 : " + plan, plan.contains("ORDERS.TABLESCAN"));
+    }
+
+    // 검색이 보낸 sql 중 주문을 읽는 sql
+    private String searchSql(Supplier<?> search) {
+        List<String> statements = SqlCapture.capture(() -> fixtures.committed(search));
+        return statements.stream()
+                .filter(sql -> sql.toLowerCase().contains("from orders"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("주문 검색 sql이 없습니다 : " + statements));
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("explain " + sql);
+            int parameterCount = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameterCount; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            return statement;
+        }, rs -> {
+            rs.next();
+            return rs.getString(1);
+        }).toUpperCase();
+    }
+
+}
@@ -0,0 +1,168 @@
+package jpabook.jpashop.repository.order.query;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.item.Book;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ v4 ~ v7 조회 방식 비교
+ 벤치마크는 실제 db 전체를 읽으므로 클래스에 @Transactional을 붙이지 않았다
+ 벤치마크(@Category(Benchmark.class))의 주문 상품 수는 ./gradlew benchmark -Dbench.sizes=10000,100000,1000000 처럼 넘긴다 (기본 10000)
+ db에 있는 주문 상품이 목표 수보다 적으면 모자란 만큼만 만들어서 채운다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderQueryRepositoryTest {
+
+    private static final String SIZES = System.getProperty("bench.sizes", "10000");
+    private static final int ITEMS_PER_ORDER = 5;
+    private static final int V4_MAX_ORDER_ITEMS = 10000; // v4는 주문마다 쿼리가 나가므로 작은 크기에서만 잰다
+
+    @Autowired OrderQueryRepository orderQueryRepository;
+    @Autowired EntityManager em;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired TestFixtures fixtures;
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void 병렬_조회_스레드는_커넥션_풀의_절반까지만() throws Exception {
+        new OrderQueryRepository(em, transactionManager, 1000, poolSize / 2 + 1, poolSize);
+    }
+
+    @Test
+    @Transactional
+    public void v7은_v5와_같은_결과() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book book1 = fixtures.book("시골 JPA", 10000, 100);
+        Book book2 = fixtures.book("도시 JPA", 20000, 100);
+        Order order1 = fixtures.order(member, book1, book2);
+        Order order2 = fixtures.order(member, book2);
+        em.flush();
+        em.clear();
+
+        // when
+        List<OrderQueryDto> v5 = mine(orderQueryRepository.findAllByDto_optimization(), order1, order2);
+        List<OrderQueryDto> v7 = mine(orderQueryRepository.findAllByDto_grouped(), order1, order2);
+
+        // then
+        assertEquals(2, v7.size());
+        assertEquals("주문과 주문 상품 구성이 v5와 같아야 한다", summary(v5), summary(v7));
+        assertEquals(2, v7.get(0).getOrderItems().size());
+        assertEquals(1, v7.get(1).getOrderItems().size());
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void 조회방식별_비교() throws Exception {
+        for (String size : SIZES.split(",")) {
+            int orderItems = Integer.parseInt(size.trim());
+            fixtures.seedOrderItems(orderItems, ITEMS_PER_ORDER);
+
+            // 첫 실행은 쿼리 플랜, jit 워밍업용
+            orderQueryRepository.findAllByDto_grouped();
+
+            System.out.printf("[bench] order items >= %d%n", orderItems);
+            if (orderItems <= V4_MAX_ORDER_ITEMS) {
+                measure("v4 (1+N)", () -> orderQueryRepository.findOrderQueryDtos().size());
+            }
+            measure("v5 (2 queries)", () -> orderQueryRepository.findAllByDto_optimization().size());
+            measure("v6 (flat)", () -> orderQueryRepository.findAllByDto_flat().size());
+            measure("v7 (grouped list)", () -> orderQueryRepository.findAllByDto_grouped().size());
+            measure("v7 (grouped stream)", () -> {
+                AtomicLong count = new AtomicLong();
+                orderQueryRepository.streamAllByDto_grouped(o -> count.incrementAndGet());
+                return (int) count.get();
+            });
+        }
+    }
+
+    /*
+     v5 주문 상품 in 쿼리 비교
+     single : 주문 id 전체를 파라미터 하나로 (chunk 이전 방식)
+     chunk : in-chunk-size 개씩 순서대로, parallel : chunk를 bench.parallelism 개 스레드로 동시에
+    */
+    @Test
+    @Category(Benchmark.class)
+    public void v5_in쿼리_chunk_비교() throws Exception {
+        int parallelism = Integer.getInteger("bench.parallelism", 4);
+        for (String size : SIZES.split(",")) {
+            int orderItems = Integer.parseInt(size.trim());
+            fixtures.seedOrderItems(orderItems, ITEMS_PER_ORDER);
+
+            System.out.printf("[bench] order items >= %d%n", orderItems);
+            measureV5("v5 single in", new OrderQueryRepository(em, transactionManager, Integer.MAX_VALUE, 1, poolSize));
+            measureV5("v5 chunk 1000", new OrderQueryRepository(em, transactionManager, 1000, 1, poolSize));
+            measureV5("v5 chunk 1000 x" + parallelism, new OrderQueryRepository(em, transactionManager, 1000, parallelism, poolSize));
+        }
+    }
+
+    private void measureV5(String name, OrderQueryRepository repository) {
+        try {
+            repository.findAllByDto_optimization(); // 워밍업
+            measure(name, () -> repository.findAllByDto_optimization().size());
+        } catch (RuntimeException e) {
+            // 파라미터 수 제한 등으로 single in 쿼리가 실패하는 경우
+            System.out.printf("[bench] %-22s failed: %s%n", name, e);
+        } finally {
+            repository.shutdown();
+        }
+    }
+
+    private void measure(String name, Supplier<Integer> query) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        int rows = query.get();
+        long nanos = System.nanoTime() - start;
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("[bench] %-22s %8d rows %8d ms heap +%d MB%n",
+                name, rows, nanos / 1_000_000, Math.max(0, usedAfter - usedBefore) / (1024 * 1024));
+    }
+
+    // db에 다른 주문이 있을 수 있으므로 이번 테스트에서 만든 주문만 골라낸다
+    private List<OrderQueryDto> mine(List<OrderQueryDto> all, Order... orders) {
+        List<Long> ids = new ArrayList<>();
+        for (Order order : orders) {
+            ids.add(order.getId());
+        }
+        return all.stream()
+                .filter(o -> ids.contains(o.getOrderId()))
+                .sorted(Comparator.comparing(OrderQueryDto::getOrderId))
+                .collect(Collectors.toList());
+    }
+
+    // 주문 상품 순서는 쿼리마다 보장되지 않으므로 정렬해서 비교한다
+    private List<String> summary(List<OrderQueryDto> orders) {
+        return orders.stream()
+                .map(o -> o.getOrderId() + " " + o.getName() + " " + o.getTotalPrice() + " " +
+                        o.getOrderItems().stream()
+                                .map(oi -> oi.getItemName() + " x" + oi.getCount())
+                                .sorted()
+                                .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+}
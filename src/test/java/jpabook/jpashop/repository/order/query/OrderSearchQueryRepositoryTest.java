@@ -0,0 +1,226 @@
+package jpabook.jpashop.repository.order.query;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.DeliveryStatus;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderStatus;
+import jpabook.jpashop.domain.item.Book;
+import jpabook.jpashop.repository.MemberNameIndex;
+import jpabook.jpashop.repository.OrderRepository;
+import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderSort;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class OrderSearchQueryRepositoryTest {
+
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 2000);
+
+    @Autowired OrderSearchQueryRepository orderSearchQueryRepository;
+    @Autowired OrderRepository orderRepository;
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+    @Autowired JPAQueryFactory queryFactory;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 조건조합별_검색결과가_querydsl과_같다() throws Exception {
+        // given
+        Member member = fixtures.member("검색회원");
+        Book book = fixtures.book("시골 JPA", 10000, 100);
+        fixtures.order(member, book, 1);
+        fixtures.order(member, book, 3);
+        em.flush();
+        em.clear();
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName("검색회원");
+        orderSearch.setOrderStatus(OrderStatus.ORDER);
+        orderSearch.setMinTotalPrice(5000);
+        orderSearch.setSort(OrderSort.TOTAL_PRICE_DESC);
+
+        // when
+        List<Long> expected = ids(orderRepository.findAll(orderSearch), Order::getId);
+        List<Long> named = ids(orderSearchQueryRepository.findAll(orderSearch), Order::getId);
+        List<Long> dto = ids(orderSearchQueryRepository.findAllDto(orderSearch), OrderSearchDto::getOrderId);
+
+        // then
+        assertEquals(2, expected.size());
+        assertEquals(expected, named);
+        assertEquals(expected, dto);
+    }
+
+    @Test
+    public void 이름_색인에_없는_회원도_like로_찾는다() throws Exception {
+        // given
+        // bulk update는 엔티티 리스너를 거치지 않으므로 새 이름이 색인에 들어가지 않는다 (다른 서버에서 바꾼 이름과 같은 상황)
+        String newName = "색인밖회원" + System.nanoTime();
+        Member member = fixtures.member("색인회원");
+        Book book = fixtures.book("시골 JPA", 10000, 100);
+        Order order = fixtures.order(member, book, 1);
+        em.flush();
+        em.createQuery("update Member m set m.name = :name where m.id = :id")
+                .setParameter("name", newName)
+                .setParameter("id", member.getId())
+                .executeUpdate();
+        em.clear();
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName(newName);
+
+        // when
+        List<Long> expected = ids(orderRepository.findAll(orderSearch), Order::getId);
+        List<Long> named = ids(orderSearchQueryRepository.findAll(orderSearch), Order::getId);
+        List<Long> dto = ids(orderSearchQueryRepository.findAllDto(orderSearch), OrderSearchDto::getOrderId);
+
+        // then
+        assertEquals("색인에 후보가 없어도 결과가 없다고 보지 않는다", 1, expected.size());
+        assertEquals(order.getId(), expected.get(0));
+        assertEquals(expected, named);
+        assertEquals(expected, dto);
+    }
+
+    @Test
+    public void 색인이_완전하지_않으면_색인에_없는_회원의_주문도_찾는다() throws Exception {
+        // given
+        // db에는 같은 이름 조각의 회원이 둘, 색인에는 하나만 있다
+        String name = "동명회원" + System.nanoTime();
+        Book book = fixtures.book("시골 JPA", 10000, 100);
+        Member indexed = fixtures.member(name + "A");
+        Member missing = fixtures.member(name + "B");
+        Order indexedOrder = fixtures.order(indexed, book, 1);
+        Order missingOrder = fixtures.order(missing, book, 1);
+        em.flush();
+        em.clear();
+
+        // 시작할 때 rebuild가 끝나기 전 (리스너가 방금 가입한 회원만 넣은 상태)
+        MemberNameIndex notRebuilt = new MemberNameIndex(true);
+        notRebuilt.indexInTransaction(indexed.getId(), indexed.getName());
+        // 서버가 여러 대 (다른 인스턴스에서 가입한 회원은 이 색인에 없다)
+        MemberNameIndex otherInstances = new MemberNameIndex(false);
+        otherInstances.rebuild(Collections.singletonList(new Object[]{indexed.getId(), indexed.getName()}));
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName(name);
+        List<Long> expected = Arrays.asList(indexedOrder.getId(), missingOrder.getId());
+
+        for (MemberNameIndex index : Arrays.asList(notRebuilt, otherInstances)) {
+            // when
+            OrderRepository orders = new OrderRepository(em, queryFactory, index);
+            OrderSearchQueryRepository searches = new OrderSearchQueryRepository(em, emf, queryFactory, index);
+
+            // then
+            assertEquals("색인에 후보가 있어도 완전하지 않으면 id 조건을 걸지 않는다", expected,
+                    sorted(ids(orders.findAll(orderSearch), Order::getId)));
+            assertEquals(expected, sorted(ids(searches.findAll(orderSearch), Order::getId)));
+            assertEquals(expected, sorted(ids(searches.findAllDto(orderSearch), OrderSearchDto::getOrderId)));
+            assertEquals(expected, sorted(searches.findPageIds(orderSearch, 0, 10)));
+        }
+    }
+
+    @Test
+    public void 주문일_배송상태_상품명_조건도_querydsl과_같다() throws Exception {
+        // given
+        Member member = fixtures.member("기간회원");
+        Book jpa = fixtures.book("기간 JPA", 10000, 100);
+        Book spring = fixtures.book("기간 SPRING", 20000, 100);
+        fixtures.order(member, jpa, 1);
+        fixtures.order(member, spring, 1);
+        em.flush();
+        em.clear();
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName("기간회원");
+        orderSearch.setOrderDateFrom(LocalDate.now().minusDays(1));
+        orderSearch.setOrderDateTo(LocalDate.now());
+        orderSearch.setDeliveryStatus(DeliveryStatus.READY);
+        orderSearch.setItemName("JPA");
+
+        // when
+        List<Long> expected = ids(orderRepository.findAll(orderSearch), Order::getId);
+        List<Long> named = ids(orderSearchQueryRepository.findAll(orderSearch), Order::getId);
+        List<Long> dto = ids(orderSearchQueryRepository.findAllDto(orderSearch), OrderSearchDto::getOrderId);
+
+        // then
+        assertEquals("상품명이 맞는 주문만 검색되어야 한다", 1, expected.size());
+        assertEquals(expected, named);
+        assertEquals(expected, dto);
+
+        orderSearch.setOrderDateFrom(LocalDate.now().plusDays(1));
+        orderSearch.setOrderDateTo(null);
+        assertEquals("주문일 범위 밖이면 검색되지 않는다", 0, orderSearchQueryRepository.findAll(orderSearch).size());
+    }
+
+    /*
+     검색 방식별 반복 호출 비교 (./gradlew benchmark -Dbench.iterations=2000)
+     매 호출마다 영속성 컨텍스트를 비워서 엔티티 조회 비용도 같이 잰다
+    */
+    @Test
+    @Category(Benchmark.class)
+    public void 검색방식별_비교() throws Exception {
+        // given
+        Member member = fixtures.member("벤치회원");
+        Book book = fixtures.book("시골 JPA", 10000, 100);
+        for (int i = 0; i < 50; i++) {
+            fixtures.order(member, book, i % 5 + 1);
+        }
+        em.flush();
+        em.clear();
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName("벤치회원");
+        orderSearch.setOrderStatus(OrderStatus.ORDER);
+
+        // when, then
+        measure("jpql string", () -> orderRepository.findAllByString(orderSearch).size());
+        measure("querydsl", () -> orderRepository.findAll(orderSearch).size());
+        measure("named query", () -> orderSearchQueryRepository.findAll(orderSearch).size());
+        measure("querydsl dto", () -> orderSearchQueryRepository.findAllDto(orderSearch).size());
+    }
+
+    private void measure(String name, IntSupplier search) {
+        for (int i = 0; i < ITERATIONS / 10; i++) { // 워밍업
+            search.getAsInt();
+            em.clear();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            search.getAsInt();
+            em.clear();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf("[bench] %-14s %8d calls %8.1f us/call%n", name, ITERATIONS, nanos / 1000.0 / ITERATIONS);
+    }
+
+    private <T> List<Long> ids(List<T> results, Function<T, Long> id) {
+        return results.stream().map(id).collect(Collectors.toList());
+    }
+
+    private List<Long> sorted(List<Long> ids) {
+        return ids.stream().sorted().collect(Collectors.toList());
+    }
+
+}
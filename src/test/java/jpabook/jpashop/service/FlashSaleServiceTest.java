@@ -0,0 +1,139 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.FlashSale;
+import jpabook.jpashop.exception.NotEnoughStockException;
+import jpabook.jpashop.repository.FlashSaleRepository;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ FlashSaleService는 자기 트랜잭션으로 커밋하고 주문도 커밋되어야 보이므로 @Transactional을 붙이지 않았다
+ 주기적인 flush(@Scheduled)가 테스트 중간에 돌 수 있다 -> 언제 반영되든 결과가 같은 값만 검증한다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class FlashSaleServiceTest {
+
+    @Autowired FlashSaleService flashSaleService;
+    @Autowired FlashSaleStockAllocator flashSaleStockAllocator;
+    @Autowired FlashSaleRepository flashSaleRepository;
+    @Autowired OrderService orderService;
+    @Autowired EntityManager em;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void flush는_판매수량을_db와_flushedSold에_같이_반영() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("flash-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("flash item", 1000, 10).getId());
+        flashSaleService.start(itemId);
+
+        // when
+        orderService.order(memberId, itemId, 3);
+        flashSaleService.flush();
+
+        // then
+        assertEquals(7, flashSaleService.remaining(itemId));
+        assertEquals(7, dbStock(itemId));
+        assertEquals(3, flashSale(itemId).getFlushedSold());
+        flashSaleService.end(itemId);
+    }
+
+    /*
+     재시작 복구
+     flash sale 전 주문은 세지 않고, 그 주문을 flash sale 중에 취소해서 복구된 재고는 남아 있어야 한다
+     재시작은 allocator를 닫아서 메모리의 재고와 미반영 판매 수량을 버리는 것으로 흉내낸다
+    */
+    @Test
+    public void reconcile은_db에_반영되지_않은_판매만_뺀다() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("flash-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("flash item", 1000, 10).getId());
+        Long preSaleOrderId = orderService.order(memberId, itemId, 2); // db 10 -> 8
+        flashSaleService.start(itemId);                                 // 메모리 8
+
+        orderService.order(memberId, itemId, 3);   // 메모리 5
+        flashSaleService.flush();                  // db 5, flushedSold 3
+        orderService.order(memberId, itemId, 1);   // 메모리 4, 미반영 1
+        orderService.cancelOrder(preSaleOrderId);  // db 7, 메모리 6
+        flashSaleStockAllocator.close(itemId);     // 재시작
+
+        // when
+        flashSaleService.reconcile();
+
+        // then
+        assertEquals("초기 재고 10 - 판매 (3 + 1), 취소된 flash sale 전 주문은 복구", 6, dbStock(itemId));
+        assertEquals(6, flashSaleService.remaining(itemId));
+        assertEquals(4, flashSale(itemId).getFlushedSold());
+
+        flashSaleService.end(itemId);
+        assertEquals("종료해도 다시 빼지 않는다", 6, dbStock(itemId));
+    }
+
+    @Test
+    public void 종료중에_들어온_주문도_db_재고에_반영된다() throws Exception {
+        // given
+        int stock = 50;
+        Long memberId = fixtures.committed(() -> fixtures.member("flash-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("flash item", 1000, stock).getId());
+        flashSaleService.start(itemId);
+        AtomicInteger success = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        for (int i = 0; i < stock * 2; i++) {
+            executor.execute(() -> {
+                try {
+                    orderService.order(memberId, itemId, 1);
+                    success.incrementAndGet();
+                } catch (NotEnoughStockException e) {
+                    // 품절
+                } catch (RuntimeException e) {
+                    // 종료가 잡은 item row 락 타임아웃 등, 해당 주문은 롤백된다
+                }
+            });
+        }
+        flashSaleService.end(itemId);
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // then
+        assertFalse(flashSaleStockAllocator.isActive(itemId));
+        assertTrue("재고보다 많이 팔리면 안된다", success.get() <= stock);
+        assertEquals("종료 전후 어느 경로로 팔렸든 db 재고에 반영되어야 한다", stock - orderedCount(itemId), dbStock(itemId));
+    }
+
+    private FlashSale flashSale(Long itemId) {
+        return fixtures.committed(() -> flashSaleRepository.findById(itemId).get());
+    }
+
+    // 2차 캐시를 거치지 않는 재고 값
+    private int dbStock(Long itemId) {
+        return fixtures.committed(() -> ((Number) em.createNativeQuery("select stock_quantity from item where item_id = ?")
+                .setParameter(1, itemId)
+                .getSingleResult()).intValue());
+    }
+
+    private long orderedCount(Long itemId) {
+        Long sum = fixtures.committed(() -> em.createQuery(
+                "select sum(oi.count) from OrderItem oi where oi.item.id = :itemId", Long.class)
+                .setParameter("itemId", itemId)
+                .getSingleResult());
+        return sum == null ? 0 : sum;
+    }
+
+}
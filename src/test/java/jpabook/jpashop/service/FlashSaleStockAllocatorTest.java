@@ -0,0 +1,97 @@
+package jpabook.jpashop.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlashSaleStockAllocatorTest {
+
+    FlashSaleStockAllocator allocator = new FlashSaleStockAllocator();
+
+    @Test
+    public void 재고만큼만_확보() throws Exception {
+        // given
+        allocator.open(1L, 3);
+
+        // when
+        boolean first = allocator.tryAcquire(1L, 2);
+        boolean second = allocator.tryAcquire(1L, 2);
+
+        // then
+        assertTrue(first);
+        assertFalse("남은 재고보다 많이 확보할 수 없다", second);
+        assertEquals(1, allocator.remaining(1L));
+        assertEquals("판매 수량만 db에 반영할 대상", 2, allocator.drainUnflushed(1L));
+        assertEquals("꺼낸 값은 0으로 초기화", 0, allocator.drainUnflushed(1L));
+    }
+
+    @Test
+    public void 롤백은_재고와_판매수량을_되돌리고_취소는_재고만_더한다() throws Exception {
+        // given
+        allocator.open(1L, 10);
+        allocator.tryAcquire(1L, 3);
+        allocator.tryAcquire(1L, 2);
+
+        // when
+        allocator.release(1L, 2);
+        allocator.restock(1L, 4);
+
+        // then
+        assertEquals(10 - 3 + 4, allocator.remaining(1L));
+        assertEquals("취소는 db에 이미 반영되었으므로 판매 수량에서 빼지 않는다", 3, allocator.drainUnflushed().get(1L).intValue());
+    }
+
+    @Test
+    public void 종료중에는_입장을_막고_진행중인_주문을_기다린다() throws Exception {
+        // given
+        allocator.open(1L, 10);
+        assertTrue(allocator.tryAcquire(1L, 1)); // 아직 커밋되지 않은 주문
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch closing = new CountDownLatch(1);
+
+        // when
+        Future<Boolean> closed = executor.submit(() -> {
+            closing.countDown();
+            return allocator.closeAdmission(1L, 5000);
+        });
+        closing.await();
+        while (allocator.isActive(1L)) {
+            Thread.sleep(1);
+        }
+
+        // then
+        assertFalse("종료 중에는 flash sale이 아니다", allocator.isActive(1L));
+        assertFalse("종료 중에는 새로 확보할 수 없다", allocator.tryAcquire(1L, 1));
+        assertFalse("진행 중인 주문이 끝나기 전에는 기다린다", closed.isDone());
+
+        allocator.exit(1L);
+        assertTrue(closed.get(1, TimeUnit.SECONDS));
+        assertEquals(1, allocator.drainUnflushed(1L));
+        executor.shutdown();
+    }
+
+    @Test
+    public void 진행중인_주문이_끝나지_않으면_종료_실패() throws Exception {
+        // given
+        allocator.open(1L, 10);
+        allocator.tryAcquire(1L, 1);
+
+        // when
+        boolean closed = allocator.closeAdmission(1L, 50);
+        allocator.reopenAdmission(1L);
+
+        // then
+        assertFalse(closed);
+        assertTrue("종료가 실패하면 다시 주문을 받는다", allocator.isActive(1L));
+        assertTrue(allocator.tryAcquire(1L, 1));
+    }
+
+}
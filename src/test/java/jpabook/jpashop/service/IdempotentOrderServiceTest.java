@@ -0,0 +1,171 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.TestFixtures;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/*
+ 같은 키의 요청이 서로 다른 트랜잭션에서 커밋되어야 하므로 @Transactional을 붙이지 않았다
+ 키는 테스트마다 새로 만든다 (캐시는 스프링 컨텍스트와 같이 테스트 사이에 공유된다)
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class IdempotentOrderServiceTest {
+
+    @Autowired IdempotentOrderService idempotentOrderService;
+    @Autowired OrderService orderService;
+    @Autowired EntityManager em;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 캐시에_있는_키는_테이블을_보지_않는다() throws Exception {
+        // given
+        String key = UUID.randomUUID().toString();
+        Long memberId = fixtures.committed(() -> fixtures.member("idem-" + key).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("idem item", 1000, 10).getId());
+        Long orderId = idempotentOrderService.order(key, memberId, Collections.singletonMap(itemId, 1));
+        deleteKey(key); // 테이블에서 지워도 캐시에서 찾아야 한다
+
+        // when
+        Long retryId = idempotentOrderService.order(key, memberId, Collections.singletonMap(itemId, 1));
+
+        // then
+        assertEquals(orderId, retryId);
+        assertEquals("캐시에서 찾았으므로 새로 주문하지 않는다", 1, orderCount(memberId));
+        assertEquals(9, dbStock(itemId));
+    }
+
+    @Test
+    public void 같은_키로_동시에_주문해도_주문은_하나() throws Exception {
+        // given
+        int threads = 8;
+        String key = UUID.randomUUID().toString();
+        Long memberId = fixtures.committed(() -> fixtures.member("idem-" + key).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("idem item", 1000, 10).getId());
+        Map<Long, Integer> itemCounts = Collections.singletonMap(itemId, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // when
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return idempotentOrderService.order(key, memberId, itemCounts);
+            }));
+        }
+        start.countDown();
+        HashSet<Long> orderIds = new HashSet<>();
+        for (Future<Long> result : results) {
+            orderIds.add(result.get(1, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+
+        // then
+        assertEquals("모든 요청이 같은 주문 id를 받는다", 1, orderIds.size());
+        assertEquals(1, orderCount(memberId));
+        assertEquals("재고는 한번만 빠진다", 8, dbStock(itemId));
+    }
+
+    @Test
+    public void 대기열_주문도_같은_키면_주문은_하나() throws Exception {
+        // given
+        String key = UUID.randomUUID().toString();
+        Long memberId = fixtures.committed(() -> fixtures.member("idem-" + key).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("idem item", 1000, 10).getId());
+        Map<Long, Integer> itemCounts = Collections.singletonMap(itemId, 1);
+
+        // when
+        CompletableFuture<Long> first = idempotentOrderService.submit(key, memberId, itemCounts);
+        CompletableFuture<Long> second = idempotentOrderService.submit(key, memberId, itemCounts); // 첫번째가 커밋되기 전일 수 있다
+        Long firstId = first.get(1, TimeUnit.MINUTES);
+        Long retryId = idempotentOrderService.submit(key, memberId, itemCounts).get(1, TimeUnit.MINUTES);
+
+        // then
+        assertEquals(firstId, second.get(1, TimeUnit.MINUTES));
+        assertEquals(firstId, retryId);
+        assertEquals(1, orderCount(memberId));
+        assertEquals(9, dbStock(itemId));
+    }
+
+    @Test
+    public void 다른_회원이_같은_키를_쓰면_각자_주문한다() throws Exception {
+        // given
+        String key = UUID.randomUUID().toString();
+        Long memberId = fixtures.committed(() -> fixtures.member("idem-" + key).getId());
+        Long otherMemberId = fixtures.committed(() -> fixtures.member("idem-other-" + key).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("idem item", 1000, 10).getId());
+        Long orderId = idempotentOrderService.order(key, memberId, Collections.singletonMap(itemId, 1));
+
+        // when
+        Long otherOrderId = idempotentOrderService.order(key, otherMemberId, Collections.singletonMap(itemId, 1));
+        Long queuedOrderId = idempotentOrderService.submit(key, otherMemberId, Collections.singletonMap(itemId, 1))
+                .get(1, TimeUnit.MINUTES);
+
+        // then
+        assertNotEquals("다른 회원의 주문 id를 돌려주면 안된다", orderId, otherOrderId);
+        assertEquals("같은 회원의 재시도는 자기 주문", otherOrderId, queuedOrderId);
+        assertEquals(1, orderCount(otherMemberId));
+        assertEquals(8, dbStock(itemId));
+    }
+
+    @Test
+    public void 캐시_만료시간이_지난_키는_테이블에서_지운다() throws Exception {
+        // given
+        String key = UUID.randomUUID().toString();
+        Long memberId = fixtures.committed(() -> fixtures.member("idem-" + key).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("idem item", 1000, 10).getId());
+        idempotentOrderService.order(key, memberId, Collections.singletonMap(itemId, 1));
+        fixtures.committed(() -> em.createNativeQuery(
+                "update order_idempotency_key set created_at = dateadd('DAY', -1, created_at) where idempotency_key = ?")
+                .setParameter(1, key)
+                .executeUpdate());
+
+        // when
+        idempotentOrderService.purgeExpiredKeys();
+
+        // then
+        assertNull(fixtures.committed(() -> orderService.findOrderIdByIdempotencyKey(memberId, key)));
+    }
+
+    private void deleteKey(String key) {
+        fixtures.committed(() -> em.createQuery("delete from OrderIdempotencyKey k where k.idempotencyKey = :key")
+                .setParameter("key", key)
+                .executeUpdate());
+    }
+
+    private long orderCount(Long memberId) {
+        return fixtures.committed(() -> em.createQuery("select count(o) from Order o where o.member.id = :memberId", Long.class)
+                .setParameter("memberId", memberId)
+                .getSingleResult());
+    }
+
+    // 2차 캐시를 거치지 않는 재고 값
+    private int dbStock(Long itemId) {
+        return fixtures.committed(() -> ((Number) em.createNativeQuery("select stock_quantity from item where item_id = ?")
+                .setParameter(1, itemId)
+                .getSingleResult()).intValue());
+    }
+
+}
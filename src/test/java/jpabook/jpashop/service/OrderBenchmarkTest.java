@@ -0,0 +1,166 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ 주문 경로별 처리량 비교
+ 다른 테스트와 다르게 @Transactional을 붙이지 않았다 -> 실제로 커밋까지 하는 비용을 재야 하기 때문
+ 반복 횟수는 ./gradlew benchmark -Dbench.orders=1000 처럼 넘겨서 바꿀 수 있다
+*/
+@Category(Benchmark.class)
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderBenchmarkTest {
+
+    private static final int ORDERS = Integer.getInteger("bench.orders", 200);
+    private static final int LINES = Integer.getInteger("bench.lines", 5);
+    private static final int THREADS = Integer.getInteger("bench.threads", 16);
+
+    @Autowired OrderService orderService;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 한건씩주문_vs_여러상품주문() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("bench-" + System.nanoTime()).getId());
+        List<Long> itemIds = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            String name = "bench book " + i;
+            itemIds.add(fixtures.committed(() -> fixtures.book(name, 1000, ORDERS * 2 + 100).getId()));
+        }
+
+        // when
+        // 기존 방식 : 상품 한 줄마다 POST /order 한번 = 트랜잭션 한번
+        long start = System.nanoTime();
+        for (int i = 0; i < ORDERS; i++) {
+            for (Long itemId : itemIds) {
+                orderService.order(memberId, itemId, 1);
+            }
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        // 여러 상품 주문 : 주문 하나에 상품 N줄 = 트랜잭션 한번
+        Map<Long, Integer> itemCounts = new LinkedHashMap<>();
+        itemIds.forEach(itemId -> itemCounts.put(itemId, 1));
+        start = System.nanoTime();
+        for (int i = 0; i < ORDERS; i++) {
+            orderService.order(memberId, itemCounts);
+        }
+        long multiNanos = System.nanoTime() - start;
+
+        // then
+        report("single-line x" + LINES, ORDERS * LINES, singleNanos);
+        report("multi-line", ORDERS * LINES, multiNanos);
+    }
+
+    /*
+     주문 1건당 db로 나가는 statement 수
+     @GeneratedValue 기본 설정일 때는 주문 1건마다 시퀀스 호출이 3번(Order, Delivery, OrderItem) 추가로 나갔다
+     pooled-lo 적용 후에는 allocationSize 번의 주문마다 한번씩만 시퀀스를 호출한다
+    */
+    @Test
+    public void 주문당_statement_수() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("bench-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("bench book", 1000, ORDERS + 100).getId());
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            Statistics statistics = stats.get();
+
+            // when
+            for (int i = 0; i < ORDERS; i++) {
+                orderService.order(memberId, itemId, 1);
+            }
+
+            // then
+            System.out.printf("[bench] %d orders, %d statements, %.2f statements/order%n",
+                    ORDERS, statistics.getPrepareStatementCount(),
+                    statistics.getPrepareStatementCount() / (double) ORDERS);
+        }
+    }
+
+    /*
+     요청마다 트랜잭션을 커밋하는 기존 방식 vs 대기열 + group commit (OrderIngestionQueue)
+     THREADS 개의 스레드가 동시에 주문을 넣고, 주문 하나가 커밋될 때까지 걸린 시간의 분포를 본다
+    */
+    @Test
+    public void 동기주문_vs_대기열주문() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("bench-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("bench book", 1000, ORDERS * 10).getId());
+        Map<Long, Integer> itemCounts = Collections.singletonMap(itemId, 1);
+
+        // when, then
+        reportLatencies("sync", runConcurrently(() -> orderService.order(memberId, itemCounts)));
+
+        for (int groupSize : new int[]{1, 10, 100}) {
+            OrderIngestionQueue queue = new OrderIngestionQueue(orderService, transactionManager, 10000, groupSize, 1000, 30000);
+            queue.start();
+            reportLatencies("queued group=" + groupSize, runConcurrently(() -> queue.submit(memberId, itemCounts).join()));
+            queue.stop();
+        }
+    }
+
+    private Latencies runConcurrently(Runnable order) throws InterruptedException {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        long start = System.nanoTime();
+        for (int i = 0; i < ORDERS; i++) {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                order.run();
+                latencies.add(System.nanoTime() - begin);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        return new Latencies(latencies, System.nanoTime() - start);
+    }
+
+    private void reportLatencies(String name, Latencies result) {
+        List<Long> sorted = new ArrayList<>(result.latencies);
+        Collections.sort(sorted);
+        System.out.printf("[bench] %-20s %10.1f orders/s p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms%n",
+                name, sorted.size() / (result.totalNanos / 1_000_000_000.0),
+                percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), percentile(sorted, 100));
+    }
+
+    private double percentile(List<Long> sorted, int percentile) {
+        int index = Math.max(0, (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1);
+        return sorted.get(index) / 1_000_000.0;
+    }
+
+    static class Latencies {
+        final List<Long> latencies;
+        final long totalNanos;
+
+        Latencies(List<Long> latencies, long totalNanos) {
+            this.latencies = latencies;
+            this.totalNanos = totalNanos;
+        }
+    }
+
+    private void report(String name, int orderLines, long nanos) {
+        System.out.printf("[bench] %-20s %8d lines %8d ms %10.1f lines/s%n",
+                name, orderLines, nanos / 1_000_000, orderLines / (nanos / 1_000_000_000.0));
+    }
+
+}
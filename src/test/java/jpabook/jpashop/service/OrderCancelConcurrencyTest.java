@@ -0,0 +1,104 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.TestFixtures;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ 같은 주문을 동시에 취소하는 상황
+ 실제 커밋이 일어나야 동시성 문제가 보이기 때문에 @Transactional을 붙이지 않았다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderCancelConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ORDERS = 10;
+    private static final int STOCK = 100;
+
+    @Autowired OrderService orderService;
+    @Autowired EntityManager em;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 같은_주문을_동시에_대량취소해도_재고는_한번만_복구() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("cancel-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("cancel item", 1000, STOCK).getId());
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            orderIds.add(orderService.order(memberId, itemId, 1));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // when
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return orderService.cancelOrders(orderIds);
+            }));
+        }
+        start.countDown();
+        int canceled = 0;
+        for (Future<Integer> result : results) {
+            canceled += result.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        // then
+        assertEquals("주문마다 한 요청에서만 취소된다", ORDERS, canceled);
+        assertEquals("취소된 수량만큼만 재고가 복구되어야 한다", STOCK, dbStock(itemId));
+    }
+
+    @Test
+    public void 같은_주문을_동시에_취소해도_재고는_한번만_복구() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("cancel-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("cancel item", 1000, STOCK).getId());
+        Long orderId = orderService.order(memberId, itemId, 3);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // when
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                orderService.cancelOrder(orderId);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        // then
+        assertEquals(STOCK, dbStock(itemId));
+    }
+
+    // 2차 캐시를 거치지 않는 재고 값
+    private int dbStock(Long itemId) {
+        return fixtures.committed(() -> ((Number) em.createNativeQuery("select stock_quantity from item where item_id = ?")
+                .setParameter(1, itemId)
+                .getSingleResult()).intValue());
+    }
+
+}
@@ -0,0 +1,107 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ StatelessSession은 자기 커넥션으로 읽으므로 테스트 데이터가 커밋되어 있어야 한다 -> @Transactional을 붙이지 않았다
+ 대량 내보내기(벤치마크)는 ./gradlew benchmark -Dbench.export-rows=1000000 처럼 주문 상품 수를 넘긴다 (db에 모자란 만큼만 만든다)
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderExportServiceTest {
+
+    private static final int EXPORT_ROWS = Integer.getInteger("bench.export-rows", 10000);
+    private static final int ITEMS_PER_ORDER = 5;
+
+    @Autowired OrderExportService orderExportService;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void csv로_내보내기() throws Exception {
+        // given
+        String memberName = "김\"csv\", " + System.nanoTime();
+        fixtures.committed(() -> fixtures.order(fixtures.member(memberName),
+                fixtures.book("시골 JPA", 10000, 100), fixtures.book("도시 JPA", 20000, 100)));
+
+        // when
+        StringWriter writer = new StringWriter();
+        long rows = orderExportService.exportCsv(writer);
+
+        // then
+        String[] lines = writer.toString().split("\n");
+        assertEquals(OrderExportService.HEADER, lines[0]);
+        assertEquals(rows, lines.length - 1);
+
+        String quotedName = "\"" + memberName.replace("\"", "\"\"") + "\"";
+        List<String> mine = Arrays.stream(lines)
+                .filter(line -> line.contains(quotedName))
+                .collect(Collectors.toList());
+        assertEquals("주문 상품 한 건이 한 줄", 2, mine.size());
+        assertTrue(mine.get(0), mine.get(0).endsWith(",ORDER,50000,시골 JPA,10000,1"));
+        assertTrue(mine.get(1), mine.get(1).endsWith(",ORDER,50000,도시 JPA,20000,2"));
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void 대량_내보내기() throws Exception {
+        // given
+        fixtures.seedOrderItems(EXPORT_ROWS, ITEMS_PER_ORDER);
+        CountingWriter writer = new CountingWriter();
+
+        // when
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        long rows = orderExportService.exportCsv(writer);
+        long nanos = System.nanoTime() - start;
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        // then
+        System.out.printf("[bench] export %d rows %d MB %d ms %.0f rows/s heap +%d MB (max %d MB)%n",
+                rows, writer.chars / (1024 * 1024), nanos / 1_000_000, rows / (nanos / 1_000_000_000.0),
+                Math.max(0, usedAfter - usedBefore) / (1024 * 1024), runtime.maxMemory() / (1024 * 1024));
+        assertTrue(rows >= EXPORT_ROWS);
+    }
+
+    // 응답 대신 글자 수만 센다
+    static class CountingWriter extends Writer {
+        long chars;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            chars += len;
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            chars += csq.length();
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.exception.OrderQueueClosedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ db 없이 대기열의 시작/종료만 본다
+ OrderService는 주문 대신 latch를 기다리는 mock, 트랜잭션 매니저는 아무것도 하지 않는 stub
+*/
+public class OrderIngestionQueueTest {
+
+    CountDownLatch release = new CountDownLatch(1);
+
+    OrderService orderService = mock(OrderService.class);
+
+    PlatformTransactionManager transactionManager = new PlatformTransactionManager() {
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    };
+
+    @Before
+    public void stubOrder() {
+        // 주문 대신 release를 기다렸다가 회원 id를 주문 id로 돌려준다
+        when(orderService.order(anyLong(), anyMap())).thenAnswer(invocation -> {
+            release.await();
+            return invocation.getArgument(0);
+        });
+    }
+
+    @Test
+    public void 종료된_대기열은_주문을_받지_않는다() throws Exception {
+        // given
+        OrderIngestionQueue queue = new OrderIngestionQueue(orderService, transactionManager, 10, 1, 100, 1000);
+        queue.start();
+        release.countDown();
+        queue.stop();
+
+        // when, then
+        try {
+            queue.submit(1L, Collections.singletonMap(1L, 1));
+            fail("종료된 대기열에 넣으면 예외가 발생해야 한다");
+        } catch (OrderQueueClosedException e) {
+            assertEquals(0, queue.size());
+        }
+    }
+
+    @Test
+    public void 종료_대기시간_안에_저장하지_못한_주문은_실패로_끝난다() throws Exception {
+        // given
+        OrderIngestionQueue queue = new OrderIngestionQueue(orderService, transactionManager, 10, 1, 100, 100);
+        queue.start();
+        CompletableFuture<Long> inProgress = queue.submit(1L, Collections.singletonMap(1L, 1)); // writer가 붙잡고 있는 주문
+        while (queue.size() > 0) {
+            Thread.sleep(1);
+        }
+        CompletableFuture<Long> waiting = queue.submit(2L, Collections.singletonMap(1L, 1));
+
+        // when
+        queue.stop();
+
+        // then
+        try {
+            waiting.get(1, TimeUnit.SECONDS);
+            fail("대기열에 남은 주문은 실패로 끝나야 한다");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof OrderQueueClosedException);
+        }
+
+        release.countDown();
+        assertEquals("writer가 저장 중이던 주문은 writer가 끝낸다", Long.valueOf(1L), inProgress.get(1, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,92 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.Order;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/*
+ 주문 목록 조회 (api v3) : 일반 트랜잭션 vs 읽기 전용 트랜잭션
+ 요청 한번당 할당한 heap, cpu 시간, 걸린 시간을 비교한다
+ 주문 수는 ./gradlew benchmark -Dbench.read-orders=10000, 반복 횟수는 -Dbench.iterations=20 처럼 넘긴다
+ 실제로 커밋(flush)까지 하는 비용을 재야 하므로 @Transactional을 붙이지 않았다
+*/
+@Category(Benchmark.class)
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class OrderReadBenchmarkTest {
+
+    private static final int ORDERS = Integer.getInteger("bench.read-orders", 2000);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 20);
+    private static final int ITEMS_PER_ORDER = 3;
+
+    // 컨트롤러의 OrderDto와 같은 필드를 읽는다
+    private static final Function<Order, String> MAPPER = o -> o.getId() + " " + o.getMember().getName() + " "
+            + o.getDelivery().getAddress().getCity() + " "
+            + o.getOrderItems().stream().map(oi -> oi.getItem().getName() + " x" + oi.getCount()).collect(Collectors.toList());
+
+    @Autowired OrderService orderService;
+    @Autowired EntityManager em;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 일반조회_vs_읽기전용조회() throws Exception {
+        // given
+        fixtures.seedOrders(ORDERS, ITEMS_PER_ORDER, 1);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+
+        // when, then
+        // 기존 방식 : 읽기 전용 설정 없이 엔티티를 읽으면 스냅샷을 만들고 커밋할 때 전부 변경 감지를 한다
+        measure("managed", () -> readWrite.execute(status -> em.createQuery(
+                "select distinct o from Order o" +
+                        " join fetch o.member m" +
+                        " join fetch o.delivery d" +
+                        " join fetch o.orderItems oi" +
+                        " join fetch oi.item i", Order.class)
+                .getResultList().stream()
+                .map(MAPPER)
+                .collect(Collectors.toList())));
+
+        measure("read-only", () -> orderService.readOrdersWithItem(MAPPER));
+    }
+
+    private void measure(String name, Supplier<List<String>> request) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < ITERATIONS / 4 + 1; i++) { // 워밍업
+            request.get();
+        }
+
+        int rows = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long cpuBefore = threads.getCurrentThreadCpuTime();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            rows = request.get().size();
+        }
+        long nanos = System.nanoTime() - start;
+        long cpuNanos = threads.getCurrentThreadCpuTime() - cpuBefore;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("[bench] %-10s %7d orders %8.1f ms/request %8.1f cpu ms/request %8.1f MB allocated/request%n",
+                name, rows, nanos / 1_000_000.0 / ITERATIONS, cpuNanos / 1_000_000.0 / ITERATIONS,
+                allocated / (1024.0 * 1024.0) / ITERATIONS);
+    }
+
+}
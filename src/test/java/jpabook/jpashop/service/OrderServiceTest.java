@@ -1,5 +1,6 @@
 package jpabook.jpashop.service;
 
+import jpabook.jpashop.TestFixtures;
 import jpabook.jpashop.domain.Address;
 import jpabook.jpashop.domain.Member;
 import jpabook.jpashop.domain.Order;
@@ -7,7 +8,14 @@ import jpabook.jpashop.domain.OrderStatus;
 import jpabook.jpashop.domain.item.Book;
 import jpabook.jpashop.domain.item.Item;
 import jpabook.jpashop.exception.NotEnoughStockException;
+import jpabook.jpashop.exception.OrderNotFoundException;
+import jpabook.jpashop.repository.OrderCursor;
+import jpabook.jpashop.repository.OrderFetchPlan;
+import jpabook.jpashop.repository.OrderPage;
 import jpabook.jpashop.repository.OrderRepository;
+import jpabook.jpashop.repository.OrderSearch;
+import jpabook.jpashop.repository.OrderSort;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,8 +25,17 @@ import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @RunWith(SpringRunner.class)
@@ -27,6 +44,7 @@ import static org.junit.Assert.fail;
 public class OrderServiceTest {
 
     @Autowired EntityManager em;
+    @Autowired TestFixtures fixtures;
     @Autowired
     OrderService orderService;
     @Autowired
@@ -67,6 +85,44 @@ public class OrderServiceTest {
         fail("재고수량 부족 예외가 발생해야 한다");
     }
 
+    @Test
+    public void 여러상품주문() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book book1 = fixtures.book("JPA", 10000, 10);
+        Book book2 = fixtures.book("Spring", 20000, 10);
+
+        Map<Long, Integer> itemCounts = new LinkedHashMap<>();
+        itemCounts.put(book1.getId(), 2);
+        itemCounts.put(book2.getId(), 3);
+
+        // when
+        Long orderId = orderService.order(member.getId(), itemCounts);
+
+        // then
+        Order getOrder = orderRepository.findOne(orderId);
+        assertEquals("주문 상품 수는 요청한 상품 종류 수와 같아야 한다", 2, getOrder.getOrderItems().size());
+        assertEquals("주문 가격은 상품별 가격 곱하기 수량의 합이다", 10000 * 2 + 20000 * 3, getOrder.getTotalPrice());
+        assertEquals("주문 수량 만큼 재고가 줄어야 한다", 8, book1.getStockQuantity());
+        assertEquals("주문 수량 만큼 재고가 줄어야 한다", 7, book2.getStockQuantity());
+    }
+
+    @Test
+    public void 같은_IdempotencyKey로_재주문() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("JPA", 10000, 10);
+        Map<Long, Integer> itemCounts = Collections.singletonMap(item.getId(), 2);
+
+        // when
+        Long orderId = orderService.order("retry-key", member.getId(), itemCounts);
+        Long retryOrderId = orderService.order("retry-key", member.getId(), itemCounts);
+
+        // then
+        assertEquals("재시도 요청은 처음 주문 id를 돌려받아야 한다", orderId, retryOrderId);
+        assertEquals("재고는 한번만 줄어야 한다", 8, item.getStockQuantity());
+    }
+
     @Test
     public void 주문취소() throws Exception {
         // given
@@ -88,6 +144,265 @@ public class OrderServiceTest {
 
     }
 
+    @Test
+    public void 주문비용은_회원의_주문이력과_무관() throws Exception {
+        // given
+        Member newMember = fixtures.member("회원1");
+        Member heavyMember = fixtures.member("회원1");
+        Book item = fixtures.book("JPA", 10000, 1000);
+        for (int i = 0; i < 50; i++) {
+            orderService.order(heavyMember.getId(), item.getId(), 1);
+        }
+        em.flush();
+        em.clear();
+
+        long newMemberLoads;
+        long heavyMemberLoads;
+        long collectionLoads;
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            Statistics statistics = stats.get();
+
+            // when
+            statistics.clear();
+            orderService.order(newMember.getId(), item.getId(), 1);
+            em.flush();
+            newMemberLoads = statistics.getEntityLoadCount();
+            em.clear();
+
+            statistics.clear();
+            orderService.order(heavyMember.getId(), item.getId(), 1);
+            em.flush();
+            heavyMemberLoads = statistics.getEntityLoadCount();
+            collectionLoads = statistics.getCollectionLoadCount();
+        }
+
+        // then
+        assertEquals("주문 시 회원의 주문 목록을 로딩하면 안된다", 0, collectionLoads);
+        assertEquals("주문 이력이 많은 회원도 조회하는 엔티티 수가 같아야 한다", newMemberLoads, heavyMemberLoads);
+    }
+
+    @Test
+    public void 대량주문취소() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        Long orderId1 = orderService.order(member.getId(), item.getId(), 2);
+        Long orderId2 = orderService.order(member.getId(), item.getId(), 3);
+        em.flush();
+        em.clear();
+
+        // when
+        int canceled = orderService.cancelOrders(Arrays.asList(orderId1, orderId2));
+        em.flush();
+        em.clear();
+
+        // then
+        assertEquals("요청한 주문이 모두 취소되어야 한다", 2, canceled);
+        assertEquals(OrderStatus.CANCEL, orderRepository.findOne(orderId1).getStatus());
+        assertEquals(OrderStatus.CANCEL, orderRepository.findOne(orderId2).getStatus());
+        assertEquals("취소된 수량만큼 재고가 한번에 복구되어야 한다", 10, em.find(Book.class, item.getId()).getStockQuantity());
+    }
+
+    @Test
+    public void 대량주문취소_쿼리수는_주문수와_무관() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("시골 JPA", 10000, 100);
+        List<Long> fewOrderIds = new ArrayList<>();
+        List<Long> manyOrderIds = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            fewOrderIds.add(orderService.order(member.getId(), item.getId(), 1));
+        }
+        for (int i = 0; i < 20; i++) {
+            manyOrderIds.add(orderService.order(member.getId(), item.getId(), 1));
+        }
+        em.flush();
+        em.clear();
+
+        long fewStatements;
+        long manyStatements;
+        try (TestFixtures.EnabledStatistics stats = fixtures.statistics()) {
+            Statistics statistics = stats.get();
+
+            // when
+            statistics.clear();
+            orderService.cancelOrders(fewOrderIds);
+            em.flush();
+            fewStatements = statistics.getPrepareStatementCount();
+            em.clear();
+
+            statistics.clear();
+            orderService.cancelOrders(manyOrderIds);
+            em.flush();
+            manyStatements = statistics.getPrepareStatementCount();
+            em.clear();
+        }
+
+        // then
+        assertEquals("락 조회 + fetch join 조회 + 상품당 재고 update + 주문 상태 batch update", fewStatements, manyStatements);
+        assertEquals(100, em.find(Book.class, item.getId()).getStockQuantity());
+    }
+
+    @Test
+    public void 없는_주문이_섞인_대량주문취소() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        Long orderId = orderService.order(member.getId(), item.getId(), 2);
+        em.flush();
+        em.clear();
+
+        // when
+        try {
+            orderService.cancelOrders(Arrays.asList(orderId, -1L));
+            fail("없는 주문이 있으면 예외가 발생해야 한다");
+        } catch (OrderNotFoundException e) {
+            // then
+            assertTrue("없는 주문 id를 알려준다", e.getMessage().contains("-1"));
+        }
+        em.clear();
+        assertEquals("아무것도 취소되지 않는다", OrderStatus.ORDER, orderRepository.findOne(orderId).getStatus());
+        assertEquals(8, em.find(Book.class, item.getId()).getStockQuantity());
+    }
+
+    @Test
+    public void 주문금액으로_검색() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        member.setName("총액검색회원");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        Long smallOrderId = orderService.order(member.getId(), item.getId(), 1);
+        Long largeOrderId = orderService.order(member.getId(), item.getId(), 3);
+        em.flush();
+        em.clear();
+
+        // when
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName("총액검색회원");
+        orderSearch.setMinTotalPrice(20000);
+        List<Order> filtered = orderRepository.findAll(orderSearch);
+
+        orderSearch.setMinTotalPrice(null);
+        orderSearch.setSort(OrderSort.TOTAL_PRICE_DESC);
+        List<Order> sorted = orderRepository.findAll(orderSearch);
+
+        // then
+        assertEquals("주문 총액은 저장된 컬럼에서 읽는다", 30000, orderRepository.findOne(largeOrderId).getTotalPrice());
+        assertEquals(1, filtered.size());
+        assertEquals(largeOrderId, filtered.get(0).getId());
+        assertEquals(largeOrderId, sorted.get(0).getId());
+        assertEquals(smallOrderId, sorted.get(1).getId());
+    }
+
+    @Test
+    public void 주문_cursor_페이징() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            orderIds.add(orderService.order(member.getId(), item.getId(), 1));
+        }
+        em.flush();
+        em.clear();
+
+        // when
+        // 이번에 만든 주문 바로 앞에서부터 2건씩 읽는다, 다음 페이지는 encode된 cursor로만 이어간다
+        List<Long> pagedIds = new ArrayList<>();
+        OrderCursor cursor = OrderCursor.after(OrderCursor.Key.ID, orderIds.get(0) - 1, null);
+        for (int page = 0; page < 3; page++) {
+            List<Order> orders = orderRepository.findAllWithMemberDelivery(cursor, 2);
+            orders.forEach(o -> pagedIds.add(o.getId()));
+            Order last = orders.get(orders.size() - 1);
+            cursor = OrderCursor.decode(OrderCursor.after(OrderCursor.Key.ID, last.getId(), null).encode());
+        }
+
+        // then
+        assertEquals("페이지를 넘겨도 중복이나 누락 없이 순서대로 읽어야 한다", orderIds, pagedIds.subList(0, 5));
+    }
+
+    @Test
+    public void 주문시간_cursor_페이징_같은_시각() throws Exception {
+        // given
+        // 주문 3건은 같은 시각, 2건은 1초 뒤 -> 페이지 경계가 같은 시각의 주문 사이에 걸리도록 2건씩 읽는다
+        // 다른 테스트의 주문과 섞이지 않도록 먼 미래 시각을 쓴다
+        LocalDateTime tie = LocalDateTime.of(2999, 1, 1, 0, 0);
+        Member member = fixtures.member("회원1");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Long orderId = orderService.order(member.getId(), item.getId(), 1);
+            orderRepository.findOne(orderId).setOrderDate(i < 3 ? tie : tie.plusSeconds(1));
+            orderIds.add(orderId);
+        }
+        em.flush();
+        em.clear();
+
+        // when
+        List<Long> pagedIds = new ArrayList<>();
+        OrderCursor cursor = OrderCursor.after(OrderCursor.Key.ORDER_DATE, 0L, tie.minusSeconds(1));
+        for (int page = 0; page < 3; page++) {
+            List<Order> orders = orderRepository.findAllWithMemberDelivery(cursor, 2);
+            orders.forEach(o -> pagedIds.add(o.getId()));
+            Order last = orders.get(orders.size() - 1);
+            cursor = OrderCursor.decode(OrderCursor.after(OrderCursor.Key.ORDER_DATE, last.getId(), last.getOrderDate()).encode());
+        }
+
+        // then
+        assertEquals("같은 시각의 주문도 중복이나 누락 없이 order_id 순서대로 읽어야 한다", orderIds, pagedIds);
+    }
+
+    @Test
+    public void 주문_검색_페이지() throws Exception {
+        // given
+        Member member = fixtures.member("회원1");
+        member.setName("페이지검색회원");
+        Book item = fixtures.book("시골 JPA", 10000, 10);
+        List<Long> orderIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            orderIds.add(orderService.order(member.getId(), item.getId(), 1));
+        }
+        em.flush();
+        em.clear();
+
+        OrderSearch orderSearch = new OrderSearch();
+        orderSearch.setMemberName("페이지검색회원");
+
+        // when
+        OrderPage first = orderService.findOrders(orderSearch, 0, 2, OrderFetchPlan.MEMBER);
+        OrderPage last = orderService.findOrders(orderSearch, 2, 2, OrderFetchPlan.MEMBER);
+        OrderPage cached = orderService.findOrders(orderSearch, 0, 2, OrderFetchPlan.MEMBER);
+
+        // then
+        assertEquals("정렬 조건이 없으면 최신 주문부터", Arrays.asList(orderIds.get(4), orderIds.get(3)),
+                Arrays.asList(first.getOrders().get(0).getId(), first.getOrders().get(1).getId()));
+        assertTrue(first.isHasNext());
+        assertEquals(5, first.getTotalCount());
+        assertTrue(first.isTotalCountExact());
+
+        assertEquals(1, last.getOrders().size());
+        assertEquals(orderIds.get(0), last.getOrders().get(0).getId());
+        assertFalse("마지막 페이지", last.isHasNext());
+
+        assertEquals("캐시에서 읽어도 같은 페이지", first.getOrders().size(), cached.getOrders().size());
+        assertTrue(cached.isHasNext());
+    }
+
+    @Test
+    public void 세는_건수를_넘는_페이지는_마지막_페이지로() throws Exception {
+        // given
+        OrderSearch orderSearch = new OrderSearch();
+        int size = 100;
+
+        // when
+        // page * size가 int 범위를 넘는 페이지
+        OrderPage page = orderService.findOrders(orderSearch, Integer.MAX_VALUE, size, OrderFetchPlan.MEMBER);
+
+        // then
+        assertEquals(OrderService.COUNT_LIMIT / size, page.getPage());
+        assertFalse("세는 건수 뒤로는 넘기지 않는다", page.isHasNext());
+    }
+
     private Book createBook(String name, int price, int stockQuantity) {
         Book book = new Book();
         book.setName(name);
@@ -0,0 +1,171 @@
+package jpabook.jpashop.service;
+
+import jpabook.jpashop.Benchmark;
+import jpabook.jpashop.TestFixtures;
+import jpabook.jpashop.domain.Delivery;
+import jpabook.jpashop.domain.Member;
+import jpabook.jpashop.domain.Order;
+import jpabook.jpashop.domain.OrderItem;
+import jpabook.jpashop.domain.item.Item;
+import jpabook.jpashop.exception.NotEnoughStockException;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ 같은 상품에 동시에 주문이 몰리는 상황
+ 실제 커밋이 일어나야 동시성 문제가 보이기 때문에 @Transactional을 붙이지 않았다
+*/
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class StockConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int ORDERS_PER_THREAD = 20;
+    private static final int STOCK = 100;
+
+    @Autowired OrderService orderService;
+    @Autowired ItemService itemService;
+    @Autowired EntityManager em;
+    @Autowired PlatformTransactionManager transactionManager;
+    @Autowired TestFixtures fixtures;
+
+    @Test
+    public void 동시주문_재고초과판매없음() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("stress-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("hot item", 1000, STOCK).getId());
+
+        // when
+        Result result = run(() -> orderService.order(memberId, itemId, 1));
+
+        // then
+        int stock = itemService.findOne(itemId).getStockQuantity();
+        long ordered = orderedCount(itemId);
+
+        assertEquals("모든 주문 시도는 성공, 재고 부족, 실패 중 하나로 끝나야 한다", THREADS * ORDERS_PER_THREAD, result.total());
+        assertTrue("재고보다 많이 팔리면 안된다", result.success.get() <= STOCK);
+        assertEquals("커밋된 주문 수량만큼만 재고가 줄어야 한다", STOCK - ordered, stock);
+        assertEquals("성공한 주문 수와 저장된 주문 수량이 같아야 한다", result.success.get(), ordered);
+        // 두번째 조회는 2차 캐시에서 읽는다
+        assertEquals("2차 캐시의 재고가 db와 같아야 한다", dbStock(itemId), itemService.findOne(itemId).getStockQuantity());
+    }
+
+    /*
+     비교용 : 조건부 update 이전의 방식 (엔티티를 읽고 메모리에서 removeStock)
+     결과가 틀릴 수 있는 경로이므로 검증은 하지 않고 처리량과 초과 판매 수량만 출력한다
+    */
+    @Test
+    @Category(Benchmark.class)
+    public void 동시주문_기존방식_비교() throws Exception {
+        // given
+        Long memberId = fixtures.committed(() -> fixtures.member("stress-" + System.nanoTime()).getId());
+        Long itemId = fixtures.committed(() -> fixtures.book("hot item", 1000, STOCK).getId());
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        // when
+        Result result = run(() -> tx.execute(status -> {
+            Member member = em.find(Member.class, memberId);
+            Item item = em.find(Item.class, itemId);
+            Delivery delivery = new Delivery();
+            delivery.setAddress(member.getAddress());
+            Order order = Order.createOrder(member, delivery, OrderItem.createOrderItem(item, item.getPrice(), 1));
+            em.persist(order);
+            return order.getId();
+        }));
+
+        // then
+        result.report("read-check-write");
+        long ordered = orderedCount(itemId);
+        int stock = itemService.findOne(itemId).getStockQuantity();
+        System.out.printf("[stress] read-check-write oversold=%d, lost updates=%d%n",
+                Math.max(0, ordered - STOCK), (STOCK - ordered) - stock);
+    }
+
+    private Result run(Runnable order) throws InterruptedException {
+        Result result = new Result();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int t = 0; t < THREADS; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                        try {
+                            order.run();
+                            result.success.incrementAndGet();
+                        } catch (NotEnoughStockException e) {
+                            result.rejected.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            // 락 타임아웃 등 db 쪽 실패, 해당 주문은 롤백된다
+                            result.failed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        result.nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        return result;
+    }
+
+    // 2차 캐시를 거치지 않는 재고 값
+    private int dbStock(Long itemId) {
+        return fixtures.committed(() -> ((Number) em.createNativeQuery("select stock_quantity from item where item_id = ?")
+                .setParameter(1, itemId)
+                .getSingleResult()).intValue());
+    }
+
+    private long orderedCount(Long itemId) {
+        Long sum = fixtures.committed(() -> em.createQuery(
+                "select sum(oi.count) from OrderItem oi where oi.item.id = :itemId", Long.class)
+                .setParameter("itemId", itemId)
+                .getSingleResult());
+        return sum == null ? 0 : sum;
+    }
+
+    static class Result {
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        long nanos;
+
+        int total() {
+            return success.get() + rejected.get() + failed.get();
+        }
+
+        void report(String name) {
+            int total = total();
+            System.out.printf("[stress] %-20s success=%d rejected=%d failed=%d %8d ms %10.1f orders/s%n",
+                    name, success.get(), rejected.get(), failed.get(),
+                    nanos / 1_000_000, total / (nanos / 1_000_000_000.0));
+        }
+    }
+
+}